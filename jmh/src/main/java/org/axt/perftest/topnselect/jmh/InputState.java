@@ -0,0 +1,45 @@
+package org.axt.perftest.topnselect.jmh;
+
+import java.io.IOException;
+
+import org.axt.perftest.topnselect.input.Datasets;
+import org.axt.perftest.topnselect.input.ScoreDistribution;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Input shared by the selection benchmarks: n entries with random indexes and scores of the given distribution,
+ * reproducible from the seed and cached between runs (see Datasets).
+ */
+@State(Scope.Benchmark)
+public abstract class InputState {
+
+	@Param({ "100000", "1000000" })
+	public int n;
+
+	@Param({ "10", "1000", "100000" })
+	public int k;
+
+	/**
+	 * MEDIAN_KILLER is not in the default list: it is quadratic for the MEDIAN and MED3 pivots (minutes per
+	 * operation at n=1M). Opt in for the randomized and introselect variants only, e.g.
+	 * -p distribution=MEDIAN_KILLER -p alg=QS_RAND,QS_INTRO for TopNSelectBenchmark, -p alg=RAND,INTRO for QSFixedBenchmark.
+	 */
+	@Param({ "UNIFORM", "ZIPFIAN", "NORMAL", "ASCENDING", "DESCENDING", "DUPLICATES", "SPECIAL_VALUES" })
+	public ScoreDistribution distribution;
+
+	@Param({ "42" })
+	public long seed;
+
+	protected int[] indexes;
+	protected double[] scores;
+
+	@Setup(Level.Trial)
+	public void createInput() throws IOException {
+		indexes = Datasets.indexes(n, seed);
+		scores = Datasets.scores(distribution, n, seed);
+	}
+}
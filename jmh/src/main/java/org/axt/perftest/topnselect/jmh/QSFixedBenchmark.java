@@ -0,0 +1,49 @@
+package org.axt.perftest.topnselect.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.axt.perftest.topnselect.alg.TopNSelectAlg;
+import org.axt.perftest.topnselect.alg.TopNSelect_QS.ALG;
+import org.axt.perftest.topnselect.alg.TopNSelect_QSFixed;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Create + sink n entries + getTopN(k) for TopNSelect_QSFixed, for every ALG and loadFactor.
+ * Run with -prof gc to get the allocation rate and normalized allocation per operation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 2, jvmArgs = { "-Xms2g", "-Xmx2g" })
+public class QSFixedBenchmark extends InputState {
+
+	@Param({ "MEDIAN", "MED3", "RAND", "INTRO" })
+	public ALG alg;
+
+	@Param({ "1.5", "3.0", "10.0" })
+	public double loadFactor;
+
+	@Benchmark
+	public int[] sink() {
+		TopNSelectAlg a = new TopNSelect_QSFixed(alg, k, loadFactor);
+		for (int j = 0; j < n; j++) {
+			a.sink(indexes[j], scores[j]);
+		}
+		return a.getTopN(k);
+	}
+
+	@Benchmark
+	public int[] sinkAll() {
+		TopNSelectAlg a = new TopNSelect_QSFixed(alg, k, loadFactor);
+		a.sinkAll(indexes, scores, 0, n);
+		return a.getTopN(k);
+	}
+}
@@ -0,0 +1,76 @@
+package org.axt.perftest.topnselect.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.axt.perftest.topnselect.alg.TopNSelectAlg;
+import org.axt.perftest.topnselect.alg.TopNSelect_PQ;
+import org.axt.perftest.topnselect.alg.TopNSelect_PQDary;
+import org.axt.perftest.topnselect.alg.TopNSelect_PQNat;
+import org.axt.perftest.topnselect.alg.TopNSelect_QS;
+import org.axt.perftest.topnselect.alg.TopNSelect_QS.ALG;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Create + sink n entries + getTopN(k), the same cycle as TopNSelectTest.testAlg, for the
+ * implementations without a loadFactor (see QSFixedBenchmark for TopNSelect_QSFixed).
+ * Run with -prof gc to get the allocation rate and normalized allocation per operation.
+ * PQDARY4 and PQDARY8 are the d-ary heaps against the binary PQNAT heap, e.g. with
+ * -p alg=PQNAT,PQDARY4,PQDARY8 -p n=5000000 -p k=1000,1000000 -p distribution=UNIFORM,ASCENDING
+ * (ascending input replaces the root with every entry, so it measures the full sift-down path).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 2, jvmArgs = { "-Xms2g", "-Xmx2g" })
+public class TopNSelectBenchmark extends InputState {
+
+	@Param({ "PQ", "PQNAT", "PQDARY4", "PQDARY8", "QS_MEDIAN", "QS_MED3", "QS_RAND", "QS_INTRO" })
+	public String alg;
+
+	private TopNSelectAlg create() {
+		switch (alg) {
+			case "PQ":
+				return new TopNSelect_PQ();
+			case "PQNAT":
+				return new TopNSelect_PQNat(k);
+			case "PQDARY4":
+				return new TopNSelect_PQDary(k, 4);
+			case "PQDARY8":
+				return new TopNSelect_PQDary(k, 8);
+			case "QS_MEDIAN":
+				return new TopNSelect_QS(ALG.MEDIAN);
+			case "QS_MED3":
+				return new TopNSelect_QS(ALG.MED3);
+			case "QS_RAND":
+				return new TopNSelect_QS(ALG.RAND);
+			case "QS_INTRO":
+				return new TopNSelect_QS(ALG.INTRO);
+			default:
+				throw new IllegalArgumentException("unknown alg " + alg);
+		}
+	}
+
+	@Benchmark
+	public int[] sink() {
+		TopNSelectAlg a = create();
+		for (int j = 0; j < n; j++) {
+			a.sink(indexes[j], scores[j]);
+		}
+		return a.getTopN(k);
+	}
+
+	@Benchmark
+	public int[] sinkAll() {
+		TopNSelectAlg a = create();
+		a.sinkAll(indexes, scores, 0, n);
+		return a.getTopN(k);
+	}
+}
@@ -0,0 +1,286 @@
+package org.axt.perftest.util.jfr;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.axt.perftest.util.PhaseProfiler;
+
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.StackTrace;
+import jdk.jfr.consumer.RecordedClass;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordedThread;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * Attributes allocations to code and phases with an in-process JFR recording, so the garbage reported by GCMeasure
+ * can be explained (boxing, hidden array copies...) without an external profiler.
+ * The phases are JFR events of their own, an allocation belongs to the phase which was open on the same thread.
+ * Needs JFR in the running JVM: JDK 11+ or 8u262+. jdk.ObjectAllocationSample (JDK 16+) is used when it is available,
+ * the TLAB events otherwise (every allocation is an "outside TLAB" one with -XX:-UseTLAB, that is exact but slow).
+ * Sizes are sampled estimates, use GCMeasure for the totals.
+ * Built for Java 11 in the jfr module, the Java 8 code reaches it through PhaseProfiler.startJfr().
+ */
+public class AllocationProfiler implements PhaseProfiler {
+
+	private static final String ALLOCATION_SAMPLE = "jdk.ObjectAllocationSample";
+	private static final String ALLOCATION_IN_NEW_TLAB = "jdk.ObjectAllocationInNewTLAB";
+	private static final String ALLOCATION_OUTSIDE_TLAB = "jdk.ObjectAllocationOutsideTLAB";
+	private static final String NO_PHASE = "(no phase)";
+
+	@Name("org.axt.perftest.Phase")
+	@Label("Measured Phase")
+	@StackTrace(false)
+	static class PhaseEvent extends Event {
+		@Label("Phase")
+		String phase;
+	}
+
+	private final Recording recording = new Recording();
+	// the open phase of each thread
+	private final ThreadLocal<PhaseEvent> openPhase = new ThreadLocal<>();
+
+	public AllocationProfiler() {
+		this("5000/s");
+	}
+
+	/**
+	 * @param throttle rate of jdk.ObjectAllocationSample events, eg. "5000/s" (ignored with the TLAB events)
+	 */
+	public AllocationProfiler(String throttle) {
+		recording.setName("allocation profile");
+		recording.setToDisk(true);
+		recording.enable(PhaseEvent.class);
+		if (hasEventType(ALLOCATION_SAMPLE)) {
+			recording.enable(ALLOCATION_SAMPLE).withStackTrace().with("throttle", throttle);
+		} else {
+			recording.enable(ALLOCATION_IN_NEW_TLAB).withStackTrace();
+			recording.enable(ALLOCATION_OUTSIDE_TLAB).withStackTrace();
+		}
+	}
+
+	private static boolean hasEventType(String name) {
+		for (EventType type : FlightRecorder.getFlightRecorder().getEventTypes()) {
+			if (name.equals(type.getName())) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Called reflectively by PhaseProfiler.startJfr().
+	 */
+	public static AllocationProfiler startProfiler() {
+		return new AllocationProfiler().start();
+	}
+
+	public AllocationProfiler start() {
+		recording.start();
+		return this;
+	}
+
+	@Override
+	public void beginPhase(String name) {
+		if (openPhase.get() != null) {
+			throw new IllegalStateException("phase " + openPhase.get().phase + " is still open");
+		}
+		PhaseEvent event = new PhaseEvent();
+		event.phase = name;
+		event.begin();
+		openPhase.set(event);
+	}
+
+	@Override
+	public void endPhase() {
+		PhaseEvent event = openPhase.get();
+		if (event == null) {
+			throw new IllegalStateException("no open phase");
+		}
+		openPhase.remove();
+		event.commit();
+	}
+
+	/**
+	 * Stops the recording and attributes the recorded allocations to the phases.
+	 */
+	public Report stop() throws IOException {
+		recording.stop();
+		Path file = Files.createTempFile("allocation-profile", ".jfr");
+		try {
+			recording.dump(file);
+			return analyze(RecordingFile.readAllEvents(file));
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+
+	@Override
+	public void printReport(PrintStream out, int limit) throws IOException {
+		stop().print(out, limit);
+	}
+
+	@Override
+	public void close() {
+		recording.close();
+	}
+
+	private static Report analyze(List<RecordedEvent> events) {
+		// phase intervals per thread, sorted by start
+		Map<Long, List<RecordedEvent>> phasesByThread = new HashMap<>();
+		for (RecordedEvent event : events) {
+			if (event.getEventType().getName().equals("org.axt.perftest.Phase") && event.getThread() != null) {
+				List<RecordedEvent> phases = phasesByThread.get(event.getThread().getJavaThreadId());
+				if (phases == null) {
+					phases = new ArrayList<>();
+					phasesByThread.put(event.getThread().getJavaThreadId(), phases);
+				}
+				phases.add(event);
+			}
+		}
+		for (List<RecordedEvent> phases : phasesByThread.values()) {
+			Collections.sort(phases, new Comparator<RecordedEvent>() {
+				@Override
+				public int compare(RecordedEvent o1, RecordedEvent o2) {
+					return o1.getStartTime().compareTo(o2.getStartTime());
+				}
+			});
+		}
+
+		Report report = new Report();
+		for (RecordedEvent event : events) {
+			String name = event.getEventType().getName();
+			long bytes;
+			if (name.equals(ALLOCATION_SAMPLE)) {
+				bytes = event.getLong("weight");
+			} else if (name.equals(ALLOCATION_IN_NEW_TLAB)) {
+				bytes = event.getLong("tlabSize");
+			} else if (name.equals(ALLOCATION_OUTSIDE_TLAB)) {
+				bytes = event.getLong("allocationSize");
+			} else {
+				continue;
+			}
+			RecordedClass type = event.getClass("objectClass");
+			report.add(phaseOf(event, phasesByThread), siteOf(event.getStackTrace()), type == null ? "?" : type.getName(), bytes);
+		}
+		return report;
+	}
+
+	private static String phaseOf(RecordedEvent allocation, Map<Long, List<RecordedEvent>> phasesByThread) {
+		RecordedThread thread = allocation.getThread();
+		List<RecordedEvent> phases = thread == null ? null : phasesByThread.get(thread.getJavaThreadId());
+		if (phases == null) return NO_PHASE;
+		// the phases of one thread do not overlap, binary search for the last one started before the allocation
+		int lo = 0, hi = phases.size() - 1, found = -1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			if (phases.get(mid).getStartTime().compareTo(allocation.getStartTime()) <= 0) {
+				found = mid;
+				lo = mid + 1;
+			} else {
+				hi = mid - 1;
+			}
+		}
+		if (found >= 0 && phases.get(found).getEndTime().compareTo(allocation.getStartTime()) >= 0) {
+			return phases.get(found).getString("phase");
+		}
+		return NO_PHASE;
+	}
+
+	/**
+	 * The first frame outside of the JDK, with the allocating JDK method if there is one (eg. an Arrays.copyOf)
+	 */
+	private static String siteOf(RecordedStackTrace stackTrace) {
+		if (stackTrace == null || stackTrace.getFrames().isEmpty()) return "?";
+		List<RecordedFrame> frames = stackTrace.getFrames();
+		String top = frameName(frames.get(0));
+		for (RecordedFrame frame : frames) {
+			String typeName = frame.getMethod().getType().getName();
+			if (!(typeName.startsWith("java.") || typeName.startsWith("jdk.") || typeName.startsWith("sun."))) {
+				String site = frameName(frame);
+				return frame == frames.get(0) ? site : site + " (" + top + ")";
+			}
+		}
+		return top;
+	}
+
+	private static String frameName(RecordedFrame frame) {
+		String type = frame.getMethod().getType().getName();
+		return type.substring(type.lastIndexOf('.') + 1) + "." + frame.getMethod().getName() + ":" + frame.getLineNumber();
+	}
+
+	/**
+	 * Sampled allocation bytes per phase, by site and by type.
+	 */
+	public static class Report {
+		private final Map<String, Map<String, Long>> bytesBySite = new LinkedHashMap<>();
+		private final Map<String, Map<String, Long>> bytesByType = new LinkedHashMap<>();
+
+		void add(String phase, String site, String type, long bytes) {
+			increment(bytesBySite, phase, site, bytes);
+			increment(bytesByType, phase, type, bytes);
+		}
+
+		private static void increment(Map<String, Map<String, Long>> byPhase, String phase, String key, long bytes) {
+			Map<String, Long> counts = byPhase.get(phase);
+			if (counts == null) {
+				counts = new HashMap<>();
+				byPhase.put(phase, counts);
+			}
+			Long old = counts.get(key);
+			counts.put(key, old == null ? bytes : old + bytes);
+		}
+
+		public List<String> getPhases() {
+			return new ArrayList<>(bytesBySite.keySet());
+		}
+
+		public List<Map.Entry<String, Long>> getTopSites(String phase, int limit) {
+			return top(bytesBySite.get(phase), limit);
+		}
+
+		public List<Map.Entry<String, Long>> getTopTypes(String phase, int limit) {
+			return top(bytesByType.get(phase), limit);
+		}
+
+		private static List<Map.Entry<String, Long>> top(Map<String, Long> counts, int limit) {
+			if (counts == null) return Collections.emptyList();
+			List<Map.Entry<String, Long>> entries = new ArrayList<>(counts.entrySet());
+			Collections.sort(entries, new Comparator<Map.Entry<String, Long>>() {
+				@Override
+				public int compare(Map.Entry<String, Long> o1, Map.Entry<String, Long> o2) {
+					return Long.compare(o2.getValue(), o1.getValue());
+				}
+			});
+			return entries.subList(0, Math.min(limit, entries.size()));
+		}
+
+		public void print(PrintStream out, int limit) {
+			for (String phase : getPhases()) {
+				out.println("phase " + phase);
+				out.println("  sites:");
+				for (Map.Entry<String, Long> e : getTopSites(phase, limit)) {
+					out.println(String.format("    %10.3f MB  %s", e.getValue() / 1024.0 / 1024.0, e.getKey()));
+				}
+				out.println("  types:");
+				for (Map.Entry<String, Long> e : getTopTypes(phase, limit)) {
+					out.println(String.format("    %10.3f MB  %s", e.getValue() / 1024.0 / 1024.0, e.getKey()));
+				}
+			}
+		}
+	}
+}
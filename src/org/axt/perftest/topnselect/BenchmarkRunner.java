@@ -0,0 +1,262 @@
+package org.axt.perftest.topnselect;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import org.axt.perftest.topnselect.TopNSelectTest.AlgProvider;
+import org.axt.perftest.topnselect.TopNSelectTest.Config;
+import org.axt.perftest.topnselect.alg.AdaptiveTopNSelect;
+import org.axt.perftest.topnselect.alg.TopNSelectAlg;
+import org.axt.perftest.topnselect.alg.TopNSelect_PQ;
+import org.axt.perftest.topnselect.alg.TopNSelect_PQDary;
+import org.axt.perftest.topnselect.alg.TopNSelect_PQNat;
+import org.axt.perftest.topnselect.alg.TopNSelect_Packed;
+import org.axt.perftest.topnselect.alg.TopNSelect_QS;
+import org.axt.perftest.topnselect.alg.TopNSelect_QS.ALG;
+import org.axt.perftest.topnselect.alg.TopNSelect_QSFixed;
+import org.axt.perftest.topnselect.alg.TopNSelect_Radix;
+import org.axt.perftest.topnselect.alg.TopNSelect_Sampled;
+import org.axt.perftest.topnselect.input.Datasets;
+import org.axt.perftest.topnselect.input.ScoreDistribution;
+import org.axt.perftest.topnselect.report.BenchmarkReport;
+
+/**
+ * Runs TopNSelectTest for every (algorithm, n, k, loadFactor) in a new JVM, so the JIT profile and the heap of one
+ * configuration can not influence the next one, and the JVM flags needed by the GC measurement are set automatically.
+ * The results of the child JVMs are collected into one report, see usage().
+ */
+public class BenchmarkRunner {
+
+	public enum Algorithm {
+		PQ { @Override TopNSelectAlg create(int n, int k, double loadFactor) { return new TopNSelect_PQ(); } },
+		PQNAT { @Override TopNSelectAlg create(int n, int k, double loadFactor) { return new TopNSelect_PQNat(k); } },
+		PQDARY { @Override TopNSelectAlg create(int n, int k, double loadFactor) { return new TopNSelect_PQDary(k); } },
+		QS_MEDIAN { @Override TopNSelectAlg create(int n, int k, double loadFactor) { return new TopNSelect_QS(ALG.MEDIAN); } },
+		QS_MED3 { @Override TopNSelectAlg create(int n, int k, double loadFactor) { return new TopNSelect_QS(ALG.MED3); } },
+		QS_RAND { @Override TopNSelectAlg create(int n, int k, double loadFactor) { return new TopNSelect_QS(ALG.RAND); } },
+		QS_INTRO { @Override TopNSelectAlg create(int n, int k, double loadFactor) { return new TopNSelect_QS(ALG.INTRO); } },
+		QSFIXED_MEDIAN(true) { @Override TopNSelectAlg create(int n, int k, double loadFactor) { return new TopNSelect_QSFixed(ALG.MEDIAN, k, loadFactor); } },
+		QSFIXED_MED3(true) { @Override TopNSelectAlg create(int n, int k, double loadFactor) { return new TopNSelect_QSFixed(ALG.MED3, k, loadFactor); } },
+		QSFIXED_RAND(true) { @Override TopNSelectAlg create(int n, int k, double loadFactor) { return new TopNSelect_QSFixed(ALG.RAND, k, loadFactor); } },
+		QSFIXED_INTRO(true) { @Override TopNSelectAlg create(int n, int k, double loadFactor) { return new TopNSelect_QSFixed(ALG.INTRO, k, loadFactor); } },
+		PACKED(true) { @Override TopNSelectAlg create(int n, int k, double loadFactor) { return new TopNSelect_Packed(k, loadFactor); } },
+		RADIX { @Override TopNSelectAlg create(int n, int k, double loadFactor) { return new TopNSelect_Radix(); } },
+		SAMPLED_QSFIXED(true) { @Override TopNSelectAlg create(int n, int k, double loadFactor) { return new TopNSelect_Sampled(new TopNSelect_QSFixed(ALG.INTRO, k, loadFactor), k); } },
+		ADAPTIVE { @Override TopNSelectAlg create(int n, int k, double loadFactor) { return new AdaptiveTopNSelect(n, k); } };
+
+		final boolean usesLoadFactor;
+
+		Algorithm() {
+			this(false);
+		}
+
+		Algorithm(boolean usesLoadFactor) {
+			this.usesLoadFactor = usesLoadFactor;
+		}
+
+		abstract TopNSelectAlg create(int n, int k, double loadFactor);
+
+		String name(double loadFactor) {
+			return usesLoadFactor ? String.format(Locale.ROOT, "%s(lf=%s)", name(), loadFactor) : name();
+		}
+	}
+
+	/**
+	 * JVM flags and GCMeasure backend of a child JVM.
+	 */
+	public enum GCSetting {
+		/** the flags of checkPreRequisites(), fixed 1G eden without TLABs */
+		EDEN("EDEN", "-XX:+UseParallelGC", "-XX:-UseTLAB", "-XX:NewSize=1G", "-XX:MaxNewSize=1G", "-XX:-UseAdaptiveSizePolicy", "-Xms3g", "-Xmx3g"),
+		/** the default collector with per-thread allocation counting */
+		THREAD("THREAD_ALLOCATION"),
+		PARALLEL("AUTO", "-XX:+UseParallelGC"),
+		G1("AUTO", "-XX:+UseG1GC"),
+		ZGC("AUTO", "-XX:+UseZGC"),
+		ZGC_GENERATIONAL("AUTO", "-XX:+UseZGC", "-XX:+ZGenerational"),
+		SHENANDOAH("AUTO", "-XX:+UseShenandoahGC");
+
+		final String backend;
+		final List<String> flags;
+
+		GCSetting(String backend, String... flags) {
+			this.backend = backend;
+			this.flags = Arrays.asList(flags);
+		}
+	}
+
+	private static final String CHILD = "--child";
+
+	private final List<Algorithm> algorithms = new ArrayList<>();
+	private final List<Integer> ns = new ArrayList<>();
+	private final List<Integer> ks = new ArrayList<>();
+	private final List<Double> loadFactors = new ArrayList<>();
+	private final List<String> jvmArgs = new ArrayList<>();
+	private GCSetting gc = GCSetting.EDEN;
+	private ScoreDistribution distribution = ScoreDistribution.UNIFORM;
+	private long seed = Datasets.DEFAULT_SEED;
+	private int warmupRuns = TopNSelectTest.DEFAULT_WARMUP_RUNS;
+	private int statisticRuns = TopNSelectTest.DEFAULT_STATISTIC_RUNS;
+	private String reportPath;
+	private String baselinePath;
+
+	private static void usage() {
+		System.err.println("usage: BenchmarkRunner --alg QSFIXED_MEDIAN,PQNAT --n 100000,1000000 --k 10,1000 [options]");
+		System.err.println("  --alg LIST          " + Arrays.toString(Algorithm.values()));
+		System.err.println("  --n LIST            input sizes");
+		System.err.println("  --k LIST            number of top results");
+		System.err.println("  --loadFactor LIST   for the QSFIXED, PACKED and SAMPLED algorithms (default 10.0)");
+		System.err.println("  --gc SETTING        " + Arrays.toString(GCSetting.values()) + " (default EDEN)");
+		System.err.println("  --jvmArg ARG        extra flag of the child JVMs, can be repeated");
+		System.err.println("  --distribution D    " + Arrays.toString(ScoreDistribution.values()) + " (default UNIFORM)");
+		System.err.println("  --seed S, --warmup N, --runs N");
+		System.err.println("  --report PATH       writes PATH.json and PATH.csv");
+		System.err.println("  --baseline FILE     compares to a previous PATH.csv, exits with 2 on a regression");
+		System.exit(1);
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length > 0 && CHILD.equals(args[0])) {
+			runChild(args);
+			return;
+		}
+		BenchmarkRunner runner = new BenchmarkRunner();
+		runner.parse(args);
+		System.exit(runner.run());
+	}
+
+	private void parse(String[] args) {
+		try {
+			for (int i = 0; i < args.length; i++) {
+				String option = args[i];
+				String value = i + 1 < args.length ? args[++i] : null;
+				if (value == null) usage();
+				switch (option) {
+				case "--alg":
+					for (String v : value.split(",")) algorithms.add(Algorithm.valueOf(v.trim().toUpperCase(Locale.ROOT)));
+					break;
+				case "--n":
+					for (String v : value.split(",")) ns.add(Integer.parseInt(v.trim().replace("_", "")));
+					break;
+				case "--k":
+					for (String v : value.split(",")) ks.add(Integer.parseInt(v.trim().replace("_", "")));
+					break;
+				case "--loadFactor":
+					for (String v : value.split(",")) loadFactors.add(Double.parseDouble(v.trim()));
+					break;
+				case "--gc":
+					gc = GCSetting.valueOf(value.toUpperCase(Locale.ROOT));
+					break;
+				case "--jvmArg":
+					jvmArgs.add(value);
+					break;
+				case "--distribution":
+					distribution = ScoreDistribution.valueOf(value.toUpperCase(Locale.ROOT));
+					break;
+				case "--seed":
+					seed = Long.parseLong(value);
+					break;
+				case "--warmup":
+					warmupRuns = Integer.parseInt(value);
+					break;
+				case "--runs":
+					statisticRuns = Integer.parseInt(value);
+					break;
+				case "--report":
+					reportPath = value;
+					break;
+				case "--baseline":
+					baselinePath = value;
+					break;
+				default:
+					System.err.println("unknown option " + option);
+					usage();
+				}
+			}
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			usage();
+		}
+		if (algorithms.isEmpty() || ns.isEmpty() || ks.isEmpty()) usage();
+		if (loadFactors.isEmpty()) loadFactors.add(10.0);
+	}
+
+	/**
+	 * @return the exit code: 0 ok, 1 a child failed, 2 regression
+	 */
+	private int run() throws Exception {
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		BenchmarkReport report = new BenchmarkReport();
+		int failed = 0;
+
+		for (Algorithm algorithm : algorithms) {
+			for (double loadFactor : algorithm.usesLoadFactor ? loadFactors : loadFactors.subList(0, 1)) {
+				for (int n : ns) {
+					for (int k : ks) {
+						if (k > n) continue;
+						Path result = Files.createTempFile("topnselect", ".csv");
+						try {
+							List<String> command = new ArrayList<>();
+							command.add(java);
+							command.addAll(gc.flags);
+							command.addAll(jvmArgs);
+							command.add("-D" + TopNSelectTest.GC_BACKEND_PROPERTY + "=" + gc.backend);
+							command.add("-cp");
+							command.add(System.getProperty("java.class.path"));
+							command.add(BenchmarkRunner.class.getName());
+							command.addAll(Arrays.asList(CHILD, algorithm.name(), String.valueOf(n), String.valueOf(k), String.valueOf(loadFactor),
+									distribution.name(), String.valueOf(seed), String.valueOf(warmupRuns), String.valueOf(statisticRuns), result.toString()));
+
+							System.out.print(algorithm.name(loadFactor) + "\t" + n + "\t" + k + "\t");
+							System.out.flush();
+							int exit = new ProcessBuilder(command).inheritIO().start().waitFor();
+							if (exit != 0) {
+								System.err.println("child JVM failed with " + exit + ": " + command);
+								failed++;
+								continue;
+							}
+							report.addAll(BenchmarkReport.readCsv(result).getResults());
+						} finally {
+							Files.deleteIfExists(result);
+						}
+					}
+				}
+			}
+		}
+
+		if (reportPath != null) System.setProperty(TopNSelectTest.REPORT_PROPERTY, reportPath);
+		if (baselinePath != null) System.setProperty(TopNSelectTest.BASELINE_PROPERTY, baselinePath);
+		if (!TopNSelectTest.checkReport(report)) {
+			return 2;
+		}
+		return failed > 0 ? 1 : 0;
+	}
+
+	private static void runChild(String[] args) throws Exception {
+		final Algorithm algorithm = Algorithm.valueOf(args[1]);
+		int n = Integer.parseInt(args[2]);
+		int k = Integer.parseInt(args[3]);
+		final double loadFactor = Double.parseDouble(args[4]);
+		ScoreDistribution distribution = ScoreDistribution.valueOf(args[5]);
+		long seed = Long.parseLong(args[6]);
+		int warmupRuns = Integer.parseInt(args[7]);
+		int statisticRuns = Integer.parseInt(args[8]);
+		Path result = Paths.get(args[9]);
+
+		Config config = new Config(algorithm.name(loadFactor), new AlgProvider<TopNSelectAlg>() {
+			@Override
+			public TopNSelectAlg get(int max, int top) {
+				return algorithm.create(max, top, loadFactor);
+			}
+		}, distribution, seed, warmupRuns, statisticRuns);
+
+		BenchmarkReport report = new BenchmarkReport();
+		report.addAll(TopNSelectTest.testAlg(config, n, k));
+		report.writeCsv(result);
+	}
+}
@@ -3,21 +3,43 @@ package org.axt.perftest.topnselect;
 import java.io.IOException;
 import java.lang.management.ManagementFactory;
 import java.lang.management.RuntimeMXBean;
+import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.List;
-import java.util.Random;
 
 import org.axt.perftest.topnselect.alg.TopNSelectAlg;
 import org.axt.perftest.topnselect.alg.TopNSelect_QS.ALG;
 import org.axt.perftest.topnselect.alg.TopNSelect_QSFixed;
+import org.axt.perftest.topnselect.input.Datasets;
+import org.axt.perftest.topnselect.input.ScoreDistribution;
+import org.axt.perftest.topnselect.report.BenchmarkReport;
+import org.axt.perftest.topnselect.report.BenchmarkResult;
+import org.axt.perftest.topnselect.report.BenchmarkResult.PhaseMeasure;
+import org.axt.perftest.topnselect.report.RegressionCheck;
+import org.axt.perftest.topnselect.report.RegressionCheck.Regression;
 import org.axt.perftest.util.GCMeasure;
 import org.axt.perftest.util.GCMeasure.Diff;
+import org.axt.perftest.util.LatencySampler;
+import org.axt.perftest.util.PhaseProfiler;
 import org.axt.perftest.util.Statistics;
 
 public class TopNSelectTest {
 
 	public static final int DEFAULT_WARMUP_RUNS 	= 30;
 	public static final int DEFAULT_STATISTIC_RUNS 	= 50;
+	/** -Dtopnselect.profileAllocations=true prints the top allocation sites of every phase to stderr (needs the jfr module on the classpath, JDK 11+) */
+	public static final String PROFILE_ALLOCATIONS_PROPERTY = "topnselect.profileAllocations";
+	/** -Dtopnselect.report=path writes path.json and path.csv */
+	public static final String REPORT_PROPERTY = "topnselect.report";
+	/** -Dtopnselect.baseline=file.csv compares the results to a previous report, exits with 2 on a regression */
+	public static final String BASELINE_PROPERTY = "topnselect.baseline";
+	/** -Dtopnselect.gcBackend=EDEN|THREAD_ALLOCATION|AUTO selects the GCMeasure backend, AUTO by default */
+	public static final String GC_BACKEND_PROPERTY = "topnselect.gcBackend";
+	/** -Dtopnselect.sinkSampling=N times every Nth batch of SINK_BATCH sink() calls, prints the ns/element distribution to stderr */
+	public static final String SINK_SAMPLING_PROPERTY = "topnselect.sinkSampling";
+	public static final int SINK_BATCH = 256;
+	private static final int SINK_SAMPLE_CAPACITY = 1 << 16;
+	private static final double NANOS_PER_MS = 1e6;
 
 	public interface AlgProvider<T> {
 		T get(int maxResults, int topResults);
@@ -25,12 +47,35 @@ public class TopNSelectTest {
 	
 	
 	public static class Config {
+		private final String name;
 		private final AlgProvider<TopNSelectAlg> provider;
-		private final int warmupRuns 	= DEFAULT_WARMUP_RUNS;
-		private final int statisticRuns = DEFAULT_STATISTIC_RUNS;
+		private final int warmupRuns;
+		private final int statisticRuns;
+		private final ScoreDistribution distribution;
+		private final long seed;
 
 		public Config(AlgProvider<TopNSelectAlg> provider) {
+			this(provider, ScoreDistribution.UNIFORM, Datasets.DEFAULT_SEED);
+		}
+
+		public Config(AlgProvider<TopNSelectAlg> provider, ScoreDistribution distribution, long seed) {
+			this(null, provider, distribution, seed);
+		}
+
+		/**
+		 * @param name the algorithm in the reports, the class name of the algorithm if null
+		 */
+		public Config(String name, AlgProvider<TopNSelectAlg> provider, ScoreDistribution distribution, long seed) {
+			this(name, provider, distribution, seed, DEFAULT_WARMUP_RUNS, DEFAULT_STATISTIC_RUNS);
+		}
+
+		public Config(String name, AlgProvider<TopNSelectAlg> provider, ScoreDistribution distribution, long seed, int warmupRuns, int statisticRuns) {
+			this.name = name;
 			this.provider = provider;
+			this.distribution = distribution;
+			this.seed = seed;
+			this.warmupRuns = warmupRuns;
+			this.statisticRuns = statisticRuns;
 		}
 
 		TopNSelectAlg getAlg(int maxResults, int topResults) throws IOException {
@@ -39,13 +84,10 @@ public class TopNSelectTest {
 		}
 	}
 
-	private static int[] global_indexes;
-	private static double[] global_scores;
+	static List<BenchmarkResult> testAlg(Config config, int maxResults, int topResults) throws Exception {
 
-	private static void testAlg(Config config, int maxResults, int topResults) throws Exception {
-
-		double[] scores = createScores(maxResults);
-		int[] indexes 	= createIndexes(maxResults);
+		double[] scores = createScores(config, maxResults);
+		int[] indexes 	= createIndexes(config, maxResults);
 
 		System.gc();
 		
@@ -57,19 +99,20 @@ public class TopNSelectTest {
 			alg.getTopN(topResults);
 		}
 
-		Statistics statCreate = new Statistics();
-		Statistics statAdd = new Statistics();
-		Statistics statGetTop = new Statistics();
+		PhaseMeasure create = new PhaseMeasure();
+		PhaseMeasure add = new PhaseMeasure();
+		PhaseMeasure getTop = new PhaseMeasure();
 
 		Statistics statGCTime = new Statistics();
 		Statistics statGCCount = new Statistics();
-		Statistics statGCGarbageCreate = new Statistics();
-		Statistics statGCGarbageTop = new Statistics();
-		Statistics statGCGarbageAdd = new Statistics();
+		String name = config.name;
 
 		// force garbage collection to start with empty eden space
 		System.gc();
-		GCMeasure gm = new GCMeasure();
+		GCMeasure gm = new GCMeasure(gcBackend());
+
+		int sampleEvery = Integer.getInteger(SINK_SAMPLING_PROPERTY, 0);
+		LatencySampler sampler = sampleEvery > 0 ? new LatencySampler(SINK_BATCH, sampleEvery, SINK_SAMPLE_CAPACITY) : null;
 
 		Diff diff;
 		long before, after;
@@ -80,64 +123,132 @@ public class TopNSelectTest {
 			TopNSelectAlg alg = config.getAlg(maxResults, topResults);
 			after = System.nanoTime();
 		
-			statCreate.add((after - before) / 1000000);
 			diff = gm.getDiff();
-			statGCGarbageCreate.add(diff.garbage);
+			create.add((after - before) / NANOS_PER_MS, diff);
 			statGCTime.add(diff.gcTime);
 			statGCCount.add(diff.gcCount);
 
 			
 			before = System.nanoTime();
-			for (int j = 0; j < maxResults; j++) {
-				alg.sink(indexes[j], scores[j]);
+			if (sampler == null) {
+				for (int j = 0; j < maxResults; j++) {
+					alg.sink(indexes[j], scores[j]);
+				}
+			} else {
+				sinkSampled(alg, indexes, scores, maxResults, sampler);
 			}
 			after = System.nanoTime();
-			statAdd.add((after - before) / 1000000);
 
 			diff = gm.getDiff();
-			statGCGarbageAdd.add(diff.garbage);
+			add.add((after - before) / NANOS_PER_MS, diff);
 			statGCTime.add(diff.gcTime);
 			statGCCount.add(diff.gcCount);
 
 			before = System.nanoTime();
 			alg.getTopN(topResults);
 			after = System.nanoTime();
-			statGetTop.add((after - before) / 1000000);
 
 			diff = gm.getDiff();
-			statGCGarbageTop.add(diff.garbage);
+			getTop.add((after - before) / NANOS_PER_MS, diff);
 			statGCTime.add(diff.gcTime);
 			statGCCount.add(diff.gcCount);
+
+			if (name == null) {
+				name = alg.getClass().getSimpleName();
+			}
 		}
 
 		System.out.println(String.format("%.4f\t%.4f\t%.4f\t%.4f\t%.4f\t%.4f\t%.4f\t%.4f", 
-				statCreate.avg(), statAdd.avg(), statGetTop.avg(), 
+				create.getTime().avg(), add.getTime().avg(), getTop.getTime().avg(), 
 				statGCTime.avg(), statGCCount.avg(), 
-				statGCGarbageCreate.avg(), statGCGarbageAdd.avg(), statGCGarbageTop.avg()));
+				create.getGarbage().avg(), add.getGarbage().avg(), getTop.getGarbage().avg()));
+
+		if (sampler != null) {
+			printSinkLatency(name, maxResults, topResults, sampler);
+		}
+		if (Boolean.getBoolean(PROFILE_ALLOCATIONS_PROPERTY)) {
+			profileAllocations(config, maxResults, topResults, scores, indexes);
+		}
+
+		return Arrays.asList(
+				create.toResult(name, maxResults, topResults, "create"),
+				add.toResult(name, maxResults, topResults, "add"),
+				getTop.toResult(name, maxResults, topResults, "getTop"));
 	}
 
-	private static int[] createIndexes(int maxResults) {
-		if (global_indexes == null) {
-			int[] ret = new int[maxResults];
-			Random r = new Random();
-			for (int i = 0; i < ret.length; i++) {
-				ret[i] = r.nextInt();
+	/**
+	 * The add phase in batches, only the sampled batches call System.nanoTime().
+	 */
+	private static void sinkSampled(TopNSelectAlg alg, int[] indexes, double[] scores, int maxResults, LatencySampler sampler) {
+		int batch = sampler.getBatchSize();
+		for (int from = 0; from < maxResults; from += batch) {
+			int to = Math.min(from + batch, maxResults);
+			if (sampler.sampleNext()) {
+				long start = System.nanoTime();
+				for (int j = from; j < to; j++) {
+					alg.sink(indexes[j], scores[j]);
+				}
+				sampler.record(from, to - from, System.nanoTime() - start);
+			} else {
+				for (int j = from; j < to; j++) {
+					alg.sink(indexes[j], scores[j]);
+				}
 			}
-			global_indexes = ret;
 		}
-		return Arrays.copyOf(global_indexes, maxResults);
 	}
 
-	private static double[] createScores(int maxResults) {
-		if (global_scores == null) {
-			double[] ret = new double[maxResults];
-			Random r = new Random();
-			for (int i = 0; i < ret.length; i++) {
-				ret[i] = r.nextDouble();
+	private static void printSinkLatency(String name, int maxResults, int topResults, LatencySampler sampler) {
+		if (sampler.size() == 0) return;
+		Statistics perElement = sampler.perElement();
+		System.err.println(String.format("sink latency of %s n=%d k=%d, ns/element of %d sampled batches (%d dropped): "
+				+ "avg=%.2f p50=%.2f p99=%.2f p99.9=%.2f max=%.2f",
+				name, maxResults, topResults, sampler.size(), sampler.getDropped(),
+				perElement.avg(), perElement.p50(), perElement.p99(), perElement.p999(), perElement.max()));
+		for (int sample : sampler.slowest(5)) {
+			System.err.println(String.format("  slow batch at %d: %.3f ms for %d elements",
+					sampler.getPosition(sample), sampler.getNanos(sample) / NANOS_PER_MS, sampler.getElements(sample)));
+		}
+	}
+
+	/**
+	 * One more run under a JFR recording, separate from the measured runs. Needs the jfr module on the classpath.
+	 */
+	private static void profileAllocations(Config config, int maxResults, int topResults, double[] scores, int[] indexes) throws Exception {
+		try (PhaseProfiler profiler = PhaseProfiler.startJfr()) {
+			TopNSelectAlg alg;
+			profiler.beginPhase("create");
+			try {
+				alg = config.getAlg(maxResults, topResults);
+			} finally {
+				profiler.endPhase();
+			}
+			profiler.beginPhase("add");
+			try {
+				for (int j = 0; j < maxResults; j++) {
+					alg.sink(indexes[j], scores[j]);
+				}
+			} finally {
+				profiler.endPhase();
 			}
-			global_scores = ret;
+			profiler.beginPhase("getTop");
+			try {
+				alg.getTopN(topResults);
+			} finally {
+				profiler.endPhase();
+			}
+			System.err.println("allocations of " + alg.getClass().getSimpleName() + " n=" + maxResults + " k=" + topResults);
+			profiler.printReport(System.err, 5);
 		}
-		return Arrays.copyOf(global_scores, maxResults);
+	}
+
+	private static int[] createIndexes(Config config, int maxResults) {
+		return Datasets.indexes(maxResults, config.seed);
+	}
+
+	// generated for every (distribution, n, seed): a prefix of a larger input has a different distribution,
+	// e.g. it is no longer adversarial for MEDIAN_KILLER. Datasets caches the scores on disk.
+	private static double[] createScores(Config config, int maxResults) throws IOException {
+		return Datasets.scores(config.distribution, maxResults, config.seed);
 	}
 
 	public static void main(String[] args) throws Exception {
@@ -154,21 +265,58 @@ public class TopNSelectTest {
 				return new TopNSelect_QSFixed(ALG.MEDIAN, top, 10.0);
 				//return new TopNSelect_PQ();
 				//return new TopNSelect_PQNat(top);
+				//return new TopNSelect_Packed(top, 10.0);
+				//return new TopNSelect_Radix();
+				//return new AdaptiveTopNSelect(max, top, true);
 			}
 		});
 
 		int step = maxInput / 25;
 
+		BenchmarkReport report = new BenchmarkReport();
 		for (int topResults = maxInput-step; topResults > 0; topResults -= step) {
 			System.out.print(topResults + "\t");
-			testAlg(config, topResults, 1000);
+			report.addAll(testAlg(config, topResults, 1000));
+		}
+
+		if (!checkReport(report)) {
+			System.exit(2);
 		}
 	}
 
 	/**
-	 * Check if the JVM options are correct.  
+	 * Writes the report and compares it to the baseline, see REPORT_PROPERTY and BASELINE_PROPERTY.
+	 * @return false if there is a regression
+	 */
+	static boolean checkReport(BenchmarkReport report) throws IOException {
+		String reportPath = System.getProperty(REPORT_PROPERTY);
+		if (reportPath != null) {
+			report.writeJson(Paths.get(reportPath + ".json"));
+			report.writeCsv(Paths.get(reportPath + ".csv"));
+		}
+		String baselinePath = System.getProperty(BASELINE_PROPERTY);
+		if (baselinePath == null) {
+			return true;
+		}
+		List<Regression> regressions = new RegressionCheck().compare(BenchmarkReport.readCsv(Paths.get(baselinePath)), report);
+		for (Regression regression : regressions) {
+			System.err.println("REGRESSION " + regression);
+		}
+		return regressions.isEmpty();
+	}
+
+	/** The GCMeasure backend of -Dtopnselect.gcBackend, AUTO (thread allocation if supported, eden otherwise) if it is not set */
+	static GCMeasure.Backend gcBackend() {
+		return GCMeasure.Backend.valueOf(System.getProperty(GC_BACKEND_PROPERTY, GCMeasure.Backend.AUTO.name()));
+	}
+
+	/**
+	 * Check if the JVM options are correct. Only the eden based garbage measurement depends on them.
 	 */
 	private static void checkPreRequisites() {
+		if (new GCMeasure(gcBackend()).getBackend() == GCMeasure.Backend.THREAD_ALLOCATION) {
+			return;
+		}
 		RuntimeMXBean rmb = ManagementFactory.getRuntimeMXBean();
 		List<String> jvmArguments = rmb.getInputArguments();
 		boolean tlab = false, sizepolicy = false, newsize = false, maxnewsize = false;
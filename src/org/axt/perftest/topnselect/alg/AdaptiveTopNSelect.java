@@ -0,0 +1,272 @@
+package org.axt.perftest.topnselect.alg;
+
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.axt.perftest.topnselect.alg.TopNSelect_QS.ALG;
+
+/**
+ * Chooses the implementation (and the loadFactor of TopNSelect_QSFixed) from the expected input size
+ * and topN, either by a fixed rule or by a micro-calibration on the current machine, and delegates to it.
+ * If the input turns out to be far larger than expected, the plan is made again for the actual size,
+ * and the partial result is merged into the new implementation if it changes.
+ */
+public class AdaptiveTopNSelect implements TopNSelectAlg {
+
+	public enum Strategy {
+		PQNAT, QSFIXED, QS
+	}
+
+	public static final class Plan {
+		public final Strategy strategy;
+		public final double loadFactor;
+
+		public Plan(Strategy strategy, double loadFactor) {
+			this.strategy = strategy;
+			this.loadFactor = loadFactor;
+		}
+
+		public TopNSelectAlg create(int topN) {
+			switch (strategy) {
+				case PQNAT:
+					return new TopNSelect_PQNat(topN);
+				case QSFIXED:
+					return new TopNSelect_QSFixed(ALG.INTRO, topN, loadFactor);
+				case QS:
+					return new TopNSelect_QS(ALG.INTRO);
+				default:
+					throw new RuntimeException("Strategy not implemented " + strategy);
+			}
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Plan)) return false;
+			Plan p = (Plan) o;
+			return strategy == p.strategy && loadFactor == p.loadFactor;
+		}
+
+		@Override
+		public int hashCode() {
+			return strategy.hashCode() * 31 + Double.hashCode(loadFactor);
+		}
+
+		@Override
+		public String toString() {
+			return strategy == Strategy.QSFIXED ? strategy + "(" + loadFactor + ")" : strategy.toString();
+		}
+	}
+
+	private static final Plan[] CANDIDATES = {
+		new Plan(Strategy.PQNAT, 0),
+		new Plan(Strategy.QSFIXED, 1.5),
+		new Plan(Strategy.QSFIXED, 3.0),
+		new Plan(Strategy.QSFIXED, 10.0),
+		new Plan(Strategy.QS, 0),
+	};
+
+	private static final int CALIBRATION_MAX_INPUT = 1 << 20;
+	private static final int CALIBRATION_WARMUP_RUNS = 3;
+	private static final int CALIBRATION_RUNS = 5;
+
+	// the input is planned again when it grows beyond this factor of the expected size
+	private static final int SWITCH_FACTOR = 4;
+
+	// thresholds of the fixed rule, see plan()
+	private static final int PQNAT_MIN_RATIO = 4096;
+	private static final int TINY_TOPN = 64;
+	private static final double QS_MIN_FRACTION = 0.9;
+
+	// calibrated plans by the rounded log2 of the calibration input size and of n/k
+	private static final ConcurrentMap<Long, Plan> calibrated = new ConcurrentHashMap<>();
+
+	/**
+	 * The fixed rule, by k/n:
+	 * <ul>
+	 * <li>k >= 0.9 n: QS, nearly everything is kept anyway, a single selection over the whole input is the cheapest</li>
+	 * <li>n/k >= 4096: PQNAT, the heap rejects almost every entry with one comparison to its root
+	 * and needs only k entries</li>
+	 * <li>k <= 64: QSFIXED(10.0), the buffer stays tiny and the compactions are amortized over more entries</li>
+	 * <li>otherwise QSFIXED(1.5) if its buffer holds the whole input (it never compacts), QSFIXED(3.0) if not</li>
+	 * </ul>
+	 * As the input grows beyond the expectation the plan moves towards PQNAT.
+	 */
+	public static Plan plan(long expectedN, int topN) {
+		long n = Math.max(1, expectedN);
+		int k = Math.max(1, topN);
+		if (k >= QS_MIN_FRACTION * n) {
+			return new Plan(Strategy.QS, 0);
+		}
+		if (n / k >= PQNAT_MIN_RATIO) {
+			return new Plan(Strategy.PQNAT, 0);
+		}
+		if (k <= TINY_TOPN) {
+			return new Plan(Strategy.QSFIXED, 10.0);
+		}
+		if (1.5 * k >= n) {
+			return new Plan(Strategy.QSFIXED, 1.5);
+		}
+		return new Plan(Strategy.QSFIXED, 3.0);
+	}
+
+	/**
+	 * Times every candidate on uniform random input of at most 2^20 entries with the same n/k ratio and
+	 * returns the fastest one. The result is cached by the input size and the ratio, so only the first call
+	 * pays for the runs.
+	 */
+	public static Plan calibrate(long expectedN, int topN) {
+		long n = Math.max(1, expectedN);
+		int sizeBucket = log2Bucket(Math.min(n, CALIBRATION_MAX_INPUT));
+		int ratioBucket = log2Bucket((double) n / Math.max(1, topN));
+		Long key = ((long) sizeBucket << 32) | (ratioBucket & 0xffffffffL);
+		Plan plan = calibrated.get(key);
+		if (plan == null) {
+			plan = runCalibration(n, topN);
+			calibrated.putIfAbsent(key, plan);
+		}
+		return plan;
+	}
+
+	private static int log2Bucket(double d) {
+		return (int) Math.round(Math.log(d) / Math.log(2));
+	}
+
+	private static Plan runCalibration(long expectedN, int topN) {
+		int n = (int) Math.min(expectedN, CALIBRATION_MAX_INPUT);
+		int k = (int) Math.max(1, Math.min(n, (long) topN * n / expectedN));
+
+		Random r = new Random(42);
+		int[] indexes = new int[n];
+		double[] scores = new double[n];
+		for (int i = 0; i < n; i++) {
+			indexes[i] = r.nextInt();
+			scores[i] = r.nextDouble();
+		}
+
+		// all candidates are compiled before the first one is timed, otherwise the later ones have an advantage
+		for (int run = 0; run < CALIBRATION_WARMUP_RUNS; run++) {
+			for (Plan candidate : CANDIDATES) {
+				TopNSelectAlg alg = candidate.create(k);
+				alg.sinkAll(indexes, scores, 0, n);
+				alg.getTopN(k);
+			}
+		}
+
+		Plan best = null;
+		long bestTime = Long.MAX_VALUE;
+		for (Plan candidate : CANDIDATES) {
+			long time = Long.MAX_VALUE;
+			for (int run = 0; run < CALIBRATION_RUNS; run++) {
+				long before = System.nanoTime();
+				TopNSelectAlg alg = candidate.create(k);
+				alg.sinkAll(indexes, scores, 0, n);
+				alg.getTopN(k);
+				time = Math.min(time, System.nanoTime() - before);
+			}
+			if (time < bestTime) {
+				bestTime = time;
+				best = candidate;
+			}
+		}
+		return best;
+	}
+
+	private final boolean calibrate;
+	private final long initialExpectedN;
+	private int topN;
+	private long expectedN;
+	private long switchAt;
+	private long count = 0;
+	private Plan plan;
+	private TopNSelectAlg delegate;
+
+	public AdaptiveTopNSelect(long expectedN, int topN) {
+		this(expectedN, topN, false);
+	}
+
+	public AdaptiveTopNSelect(long expectedN, int topN, boolean calibrate) {
+		this.calibrate = calibrate;
+		this.topN = topN;
+		this.initialExpectedN = expectedN;
+		this.expectedN = expectedN;
+		this.switchAt = expectedN * SWITCH_FACTOR;
+		this.plan = choose(expectedN, topN);
+		this.delegate = plan.create(topN);
+	}
+
+	private Plan choose(long expectedN, int topN) {
+		return calibrate ? calibrate(expectedN, topN) : plan(expectedN, topN);
+	}
+
+	public Plan getPlan() {
+		return plan;
+	}
+
+	private void replan() {
+		expectedN = count * SWITCH_FACTOR;
+		switchAt = expectedN * SWITCH_FACTOR;
+		Plan next = choose(expectedN, topN);
+		if (!next.equals(plan)) {
+			TopNSelectAlg alg = next.create(topN);
+			delegate.sinkInto(alg);
+			delegate = alg;
+			plan = next;
+		}
+	}
+
+	@Override
+	public void sink(int index, double score) {
+		if (++count > switchAt) {
+			replan();
+		}
+		delegate.sink(index, score);
+	}
+
+	@Override
+	public void sinkAll(int[] indexes, double[] scores, int off, int len) {
+		count += len;
+		if (count > switchAt) {
+			replan();
+		}
+		delegate.sinkAll(indexes, scores, off, len);
+	}
+
+	@Override
+	public void sinkInto(TopNSelectAlg target) {
+		delegate.sinkInto(target);
+	}
+
+	@Override
+	public int[] getTopN(int topN) {
+		return delegate.getTopN(topN);
+	}
+
+	@Override
+	public void getTopNSorted(int topN, TopNResult result) {
+		delegate.getTopNSorted(topN, result);
+	}
+
+	/**
+	 * Forgets the grown input size as well, the next input is planned by the size given to the constructor.
+	 */
+	@Override
+	public void reset() {
+		reset(topN);
+	}
+
+	@Override
+	public void reset(int topN) {
+		this.topN = topN;
+		this.count = 0;
+		this.expectedN = initialExpectedN;
+		this.switchAt = initialExpectedN * SWITCH_FACTOR;
+		Plan next = choose(expectedN, topN);
+		if (next.equals(plan)) {
+			delegate.reset(topN);
+		} else {
+			plan = next;
+			delegate = plan.create(topN);
+		}
+	}
+}
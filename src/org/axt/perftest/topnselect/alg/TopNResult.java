@@ -0,0 +1,65 @@
+package org.axt.perftest.topnselect.alg;
+
+/**
+ * Reusable primitive holder of a ranked top N result: rank 0 is the best entry.
+ * The backing arrays only grow, so a result object reused across queries does not allocate
+ * in a steady state.
+ */
+public class TopNResult {
+
+	int size = 0;
+	int[] indexes;
+	double[] scores;
+
+	public TopNResult() {
+		this(16);
+	}
+
+	public TopNResult(int initialCapacity) {
+		indexes = new int[initialCapacity];
+		scores = new double[initialCapacity];
+	}
+
+	// the old content is not kept
+	void ensureCapacity(int capacity) {
+		if (indexes.length < capacity) {
+			indexes = new int[capacity];
+			scores = new double[capacity];
+		}
+	}
+
+	void set(int[] indexes, double[] scores, int len) {
+		ensureCapacity(len);
+		System.arraycopy(indexes, 0, this.indexes, 0, len);
+		System.arraycopy(scores, 0, this.scores, 0, len);
+		size = len;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int getIndex(int rank) {
+		if (rank < 0 || rank >= size) throw new ArrayIndexOutOfBoundsException(rank);
+		return indexes[rank];
+	}
+
+	public double getScore(int rank) {
+		if (rank < 0 || rank >= size) throw new ArrayIndexOutOfBoundsException(rank);
+		return scores[rank];
+	}
+
+	/**
+	 * @return the backing array, only the first size() elements are valid
+	 */
+	public int[] getIndexes() {
+		return indexes;
+	}
+
+	/**
+	 * @return the backing array, only the first size() elements are valid
+	 */
+	public double[] getScores() {
+		return scores;
+	}
+}
@@ -1,9 +1,53 @@
 package org.axt.perftest.topnselect.alg;
 
+/**
+ * Selects the indexes of the N highest scores, ties are broken by the lower index.
+ * Scores are compared like with <, > and ==, so -0.0 and 0.0 tie. NaN is not a valid score and its rank
+ * is implementation specific: the bit pattern based selectors (Packed, Radix, PQDary) and the MEDIAN/MED3
+ * modes of QS rank it at the top, the heaps and QSFixed do not.
+ */
 public interface TopNSelectAlg {
 	
 	void sink(int index, double score);
 
+	/**
+	 * Sinks the entries in [off, off+len) of the given arrays. Implementations override it
+	 * to reject the chunk against their admission threshold in a single tight loop.
+	 */
+	default void sinkAll(int[] indexes, double[] scores, int off, int len) {
+		int end = off + len;
+		for (int i = off; i < end; i++) {
+			sink(indexes[i], scores[i]);
+		}
+	}
+
+	/**
+	 * Sinks every entry retained by this instance into the target.
+	 */
+	void sinkInto(TopNSelectAlg target);
+
+	/**
+	 * Merges the partial result of the other instance into this one.
+	 */
+	default void merge(TopNSelectAlg other) {
+		other.sinkInto(this);
+	}
+
 	int[] getTopN(int topN);
 
+	/**
+	 * Fills the result with the top N entries and their scores in rank order (best first).
+	 */
+	void getTopNSorted(int topN, TopNResult result);
+
+	/**
+	 * Drops every retained entry, keeping the allocated buffers for the next query.
+	 */
+	void reset();
+
+	/**
+	 * Like reset(), but also changes the number of results to keep. Buffers are only reallocated if they have to grow.
+	 */
+	void reset(int topN);
+
 }
@@ -0,0 +1,53 @@
+package org.axt.perftest.topnselect.alg;
+
+import java.util.ArrayDeque;
+import java.util.function.IntFunction;
+
+/**
+ * Thread-local pool of selector instances. acquire() hands out a recycled instance reset to the
+ * requested topN, or creates one with the factory if the pool of the current thread is empty.
+ * In a steady state query loop (acquire, sink, getTopN, release on the same thread) no new
+ * selector or buffer is allocated.
+ */
+public class TopNSelectPool<T extends TopNSelectAlg> {
+
+	public static final int DEFAULT_MAX_IDLE = 4;
+
+	private final IntFunction<T> factory;
+	private final int maxIdle;
+	private final ThreadLocal<ArrayDeque<T>> idle;
+
+	public TopNSelectPool(IntFunction<T> factory) {
+		this(factory, DEFAULT_MAX_IDLE);
+	}
+
+	public TopNSelectPool(IntFunction<T> factory, final int maxIdle) {
+		this.factory = factory;
+		this.maxIdle = maxIdle;
+		this.idle = new ThreadLocal<ArrayDeque<T>>() {
+			@Override
+			protected ArrayDeque<T> initialValue() {
+				return new ArrayDeque<T>(maxIdle);
+			}
+		};
+	}
+
+	public T acquire(int topN) {
+		T alg = idle.get().pollFirst();
+		if (alg == null) {
+			return factory.apply(topN);
+		}
+		alg.reset(topN);
+		return alg;
+	}
+
+	/**
+	 * Returns the instance to the pool of the current thread, it must not be used by the caller afterwards.
+	 */
+	public void release(T alg) {
+		ArrayDeque<T> pool = idle.get();
+		if (pool.size() < maxIdle) {
+			pool.addFirst(alg);
+		}
+	}
+}
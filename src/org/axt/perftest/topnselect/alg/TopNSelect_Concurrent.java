@@ -0,0 +1,127 @@
+package org.axt.perftest.topnselect.alg;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+import org.axt.perftest.topnselect.alg.TopNSelect_PQNat.IntDoublePriorityQueue;
+import org.axt.perftest.topnselect.alg.TopNSelect_PQNat.Order;
+
+/**
+ * Top N collector for many producer threads. Every thread sinks into its own bounded primitive
+ * priority queue, so the hot path is not synchronized. A full shard publishes its worst kept score
+ * as a global admission threshold (lock-free, with CAS on the raw bits), and every shard rejects
+ * entries below it before touching its heap.
+ * The shards are merged in getTopN and sinkInto, which must be called after the producers
+ * have finished (e.g. after joining them).
+ * The shards are kept across reset() so the producers can reuse them. A producer thread holds on to its
+ * topN sized shard of every collector it has sunk into until that thread dies, or until the collector is
+ * unreachable and the thread's ThreadLocal map expunges the stale entry; with long living pool threads,
+ * reuse the collector (or a few of them) instead of creating one per query.
+ */
+public class TopNSelect_Concurrent implements TopNSelectAlg {
+
+	private static final AtomicLongFieldUpdater<TopNSelect_Concurrent> THRESHOLD_BITS =
+			AtomicLongFieldUpdater.newUpdater(TopNSelect_Concurrent.class, "thresholdBits");
+
+	private int topN;
+	// the scratch queue of getTopN and getTopNSorted, reset to the requested topN on every call
+	private final TopNSelect_PQNat merged;
+	private final Queue<IntDoublePriorityQueue> shards = new ConcurrentLinkedQueue<>();
+	private final ThreadLocal<IntDoublePriorityQueue> shard = new ThreadLocal<IntDoublePriorityQueue>() {
+		@Override
+		protected IntDoublePriorityQueue initialValue() {
+			IntDoublePriorityQueue pq = new IntDoublePriorityQueue(topN, Order.TOP_LOWER_INDEX);
+			shards.add(pq);
+			return pq;
+		}
+	};
+
+	private static final long NO_THRESHOLD = Double.doubleToRawLongBits(Double.NEGATIVE_INFINITY);
+
+	// the highest worst score among the full shards: an entry below it can not be in the global top N
+	private volatile long thresholdBits = NO_THRESHOLD;
+
+	public TopNSelect_Concurrent(int topN) {
+		this.topN = topN;
+		this.merged = new TopNSelect_PQNat(topN);
+	}
+
+	private double threshold() {
+		return Double.longBitsToDouble(thresholdBits);
+	}
+
+	private void publish(double score) {
+		long current;
+		do {
+			current = thresholdBits;
+			if (!(score > Double.longBitsToDouble(current))) return;
+		} while (!THRESHOLD_BITS.compareAndSet(this, current, Double.doubleToRawLongBits(score)));
+	}
+
+	@Override
+	public void sink(int index, double score) {
+		// an empty shard has no root to compare against
+		if (topN == 0 || score < threshold()) return;
+		IntDoublePriorityQueue pq = shard.get();
+		pq.add(index, score);
+		if (pq.size() == pq.capacity()) {
+			publish(pq.getdoubleMax());
+		}
+	}
+
+	@Override
+	public void sinkAll(int[] indexes, double[] scores, int off, int len) {
+		if (topN == 0) return;
+		IntDoublePriorityQueue pq = shard.get();
+		double threshold = threshold();
+		int end = off + len;
+		for (int i = off; i < end; i++) {
+			double score = scores[i];
+			if (score < threshold) continue;
+			pq.add(indexes[i], score);
+			if (pq.size() == pq.capacity()) {
+				publish(pq.getdoubleMax());
+				threshold = threshold();
+			}
+		}
+	}
+
+	@Override
+	public void sinkInto(TopNSelectAlg target) {
+		for (IntDoublePriorityQueue pq : shards) {
+			pq.sinkInto(target);
+		}
+	}
+
+	private TopNSelect_PQNat merge(int topN) {
+		merged.reset(Math.min(topN, this.topN));
+		sinkInto(merged);
+		return merged;
+	}
+
+	@Override
+	public int[] getTopN(int topN) {
+		return merge(topN).getTopN(topN);
+	}
+
+	@Override
+	public void getTopNSorted(int topN, TopNResult result) {
+		merge(topN).getTopNSorted(topN, result);
+	}
+
+	// like getTopN, it must not run concurrently with the producers
+	@Override
+	public void reset() {
+		reset(topN);
+	}
+
+	@Override
+	public void reset(int topN) {
+		this.topN = topN;
+		for (IntDoublePriorityQueue pq : shards) {
+			pq.reset(topN);
+		}
+		thresholdBits = NO_THRESHOLD;
+	}
+}
@@ -39,6 +39,13 @@ public class TopNSelect_PQ implements TopNSelectAlg {
 		results.add(entry);
 	}
 
+	@Override
+	public void sinkInto(TopNSelectAlg target) {
+		for (Entry entry : results) {
+			target.sink(entry.index, entry.score);
+		}
+	}
+
 	// Note: not optimized for cases where size < topN
 	@Override
 	public int[] getTopN(int topN) {
@@ -50,4 +57,27 @@ public class TopNSelect_PQ implements TopNSelectAlg {
 		}
 		return indexes;
 	}
+
+	// polls the queue just like getTopN, the entries come out in rank order
+	@Override
+	public void getTopNSorted(int topN, TopNResult result) {
+		int size = Math.min(topN, results.size());
+		result.ensureCapacity(size);
+		for (int i = 0; i < size; i++) {
+			Entry entry = results.poll();
+			result.indexes[i] = entry.index;
+			result.scores[i] = entry.score;
+		}
+		result.size = size;
+	}
+
+	@Override
+	public void reset() {
+		results.clear();
+	}
+
+	@Override
+	public void reset(int topN) {
+		reset();
+	}
 }
@@ -0,0 +1,180 @@
+package org.axt.perftest.topnselect.alg;
+
+/**
+ * Bounded d-ary (4-ary, 8-ary, ...) heap selector for large k. Entries are interleaved in a single
+ * long[] (sortable score bits, index), and the heap is shifted by arity - 1 slots so that all children of a
+ * node are contiguous and start at a multiple of the arity in the array. That is relative to the first element,
+ * the array header is not accounted for, so the block is not aligned to a cache line, but a sift-down level
+ * still reads one contiguous range (a few cache lines at most) instead of the scattered loads of the two
+ * parallel arrays in IntDoublePriorityQueue, and the tree is log2(arity) times shallower.
+ * Same contract as TopNSelect_PQNat: higher score first, lower index wins on equal score.
+ */
+public class TopNSelect_PQDary implements TopNSelectAlg {
+
+	public static final int DEFAULT_ARITY = 4;
+
+	private final int shift;
+	private final int arity;
+	private final int offset;
+
+	private int capacity;
+	private int size = 0;
+	// entry p is stored at heap[2 * (p + offset)] (sortable score bits) and heap[2 * (p + offset) + 1] (index)
+	private long[] heap;
+
+	public TopNSelect_PQDary(int topN) {
+		this(topN, DEFAULT_ARITY);
+	}
+
+	public TopNSelect_PQDary(int topN, int arity) {
+		if (arity < 2 || Integer.bitCount(arity) != 1) {
+			throw new IllegalArgumentException("arity must be a power of two, got " + arity);
+		}
+		this.arity = arity;
+		this.shift = Integer.numberOfTrailingZeros(arity);
+		this.offset = arity - 1;
+		this.capacity = topN;
+		this.heap = new long[(topN + offset) << 1];
+	}
+
+	// sortable bits of the score: comparing them as longs gives the order of the doubles.
+	// +0.0 turns -0.0 into 0.0, they are equal scores for the other algorithms as well
+	private static long key(double score) {
+		long bits = Double.doubleToLongBits(score + 0.0);
+		return bits ^ ((bits >> 63) & 0x7fffffffffffffffL);
+	}
+
+	private static double score(long key) {
+		return Double.longBitsToDouble(key ^ ((key >> 63) & 0x7fffffffffffffffL));
+	}
+
+	private int slot(int p) {
+		return (p + offset) << 1;
+	}
+
+	// the root of the heap is the worst kept entry
+	private static boolean isWorse(long k1, long i1, long k2, long i2) {
+		return k1 < k2 || (k1 == k2 && i1 > i2);
+	}
+
+	@Override
+	public void sink(int index, double score) {
+		long key = key(score);
+		if (size < capacity) {
+			siftUp(size++, key, index);
+		} else if (capacity > 0 && isWorse(heap[offset << 1], heap[(offset << 1) + 1], key, index)) {
+			siftDown(key, index);
+		}
+	}
+
+	@Override
+	public void sinkAll(int[] indexes, double[] scores, int off, int len) {
+		int end = off + len;
+		int i = off;
+		for (; i < end && size < capacity; i++) {
+			sink(indexes[i], scores[i]);
+		}
+		if (size == 0) return;
+
+		double threshold = score(heap[offset << 1]);
+		for (; i < end; i++) {
+			double score = scores[i];
+			if (score < threshold) continue;
+			sink(indexes[i], score);
+			threshold = score(heap[offset << 1]);
+		}
+	}
+
+	// moves the hole at p up until the entry fits, then stores it there
+	private void siftUp(int p, long key, long index) {
+		while (p > 0) {
+			int parent = (p - 1) >>> shift;
+			int parentSlot = slot(parent);
+			if (!isWorse(key, index, heap[parentSlot], heap[parentSlot + 1])) break;
+			int s = slot(p);
+			heap[s] = heap[parentSlot];
+			heap[s + 1] = heap[parentSlot + 1];
+			p = parent;
+		}
+		int s = slot(p);
+		heap[s] = key;
+		heap[s + 1] = index;
+	}
+
+	// replaces the root: moves the hole down until the entry fits, then stores it there
+	private void siftDown(long key, long index) {
+		int p = 0;
+		int s = slot(0);
+		int endSlot = slot(size);
+		while (true) {
+			int first = slot((p << shift) + 1);
+			if (first >= endSlot) break;
+			int last = Math.min(first + (arity << 1), endSlot);
+
+			int worst = first;
+			long worstKey = heap[first];
+			long worstIndex = heap[first + 1];
+			for (int c = first + 2; c < last; c += 2) {
+				long ck = heap[c];
+				long ci = heap[c + 1];
+				if (isWorse(ck, ci, worstKey, worstIndex)) {
+					worst = c;
+					worstKey = ck;
+					worstIndex = ci;
+				}
+			}
+
+			if (!isWorse(worstKey, worstIndex, key, index)) break;
+			heap[s] = worstKey;
+			heap[s + 1] = worstIndex;
+			s = worst;
+			p = (worst >> 1) - offset;
+		}
+		heap[s] = key;
+		heap[s + 1] = index;
+	}
+
+	@Override
+	public void sinkInto(TopNSelectAlg target) {
+		for (int p = 0; p < size; p++) {
+			int s = slot(p);
+			target.sink((int) heap[s + 1], score(heap[s]));
+		}
+	}
+
+	@Override
+	public int[] getTopN(int topN) {
+		int[] indexes = new int[size];
+		for (int p = 0; p < size; p++) {
+			indexes[p] = (int) heap[slot(p) + 1];
+		}
+		return indexes;
+	}
+
+	@Override
+	public void getTopNSorted(int topN, TopNResult result) {
+		result.ensureCapacity(size);
+		for (int p = 0; p < size; p++) {
+			int s = slot(p);
+			result.indexes[p] = (int) heap[s + 1];
+			result.scores[p] = score(heap[s]);
+		}
+		TopNSelect_QS.sortTheTopN(result.scores, result.indexes, 0, size);
+		result.size = Math.min(topN, size);
+	}
+
+	@Override
+	public void reset() {
+		size = 0;
+	}
+
+	@Override
+	public void reset(int topN) {
+		int length = (topN + offset) << 1;
+		if (length > heap.length) {
+			heap = new long[length];
+		}
+		capacity = topN;
+		size = 0;
+	}
+}
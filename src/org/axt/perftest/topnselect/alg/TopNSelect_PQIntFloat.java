@@ -0,0 +1,136 @@
+// Generated by GenerateSpecializations from PrimitivePQ.template, do not edit.
+package org.axt.perftest.topnselect.alg;
+
+import java.util.Arrays;
+
+/**
+ * Bounded primitive priority queue selector with int indexes and float scores, with the same
+ * contract as TopNSelect_PQNat: higher score first, lower index wins on equal score.
+ * The comparison is inlined, there is no comparator interface on the sift path. The root of the
+ * heap is the worst kept entry, it is also the admission threshold once the queue is full.
+ */
+public class TopNSelect_PQIntFloat {
+
+	private int[] indexes;
+	private float[] scores;
+	private int capacity;
+	private int size = 0;
+
+	public TopNSelect_PQIntFloat(int topN) {
+		this.capacity = topN;
+		this.indexes = new int[topN];
+		this.scores = new float[topN];
+	}
+
+	private static boolean isWorse(int i1, float s1, int i2, float s2) {
+		return s1 < s2 || (s1 == s2 && i1 > i2);
+	}
+
+	public void sink(int index, float score) {
+		if (size < capacity) {
+			indexes[size] = index;
+			scores[size] = score;
+			siftUp(size++);
+		} else if (capacity > 0 && isWorse(indexes[0], scores[0], index, score)) {
+			indexes[0] = index;
+			scores[0] = score;
+			siftDown(indexes, scores, 0, size);
+		}
+	}
+
+	public void sinkAll(int[] indexes, float[] scores, int off, int len) {
+		int end = off + len;
+		int i = off;
+		for (; i < end && size < capacity; i++) {
+			sink(indexes[i], scores[i]);
+		}
+		if (size == 0) return;
+
+		float threshold = this.scores[0];
+		for (; i < end; i++) {
+			float score = scores[i];
+			if (score < threshold) continue;
+			sink(indexes[i], score);
+			threshold = this.scores[0];
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return the indexes of the top N entries, in no particular order
+	 */
+	public int[] getTopN(int topN) {
+		if (topN >= size) {
+			return Arrays.copyOf(indexes, size);
+		}
+		int[] indexesOut = new int[size];
+		float[] scoresOut = new float[size];
+		int len = getTopNSorted(topN, indexesOut, scoresOut);
+		return Arrays.copyOf(indexesOut, len);
+	}
+
+	/**
+	 * Writes the top N entries in rank order (best first) into the given arrays, which must hold
+	 * at least size() elements. The queue is not changed.
+	 * @return the number of entries written
+	 */
+	public int getTopNSorted(int topN, int[] indexesOut, float[] scoresOut) {
+		System.arraycopy(indexes, 0, indexesOut, 0, size);
+		System.arraycopy(scores, 0, scoresOut, 0, size);
+		// heap drain on the copy: the worst entry goes to the end of the shrinking heap
+		for (int end = size - 1; end > 0; end--) {
+			swap(indexesOut, scoresOut, 0, end);
+			siftDown(indexesOut, scoresOut, 0, end);
+		}
+		return Math.min(topN, size);
+	}
+
+	public void reset() {
+		size = 0;
+	}
+
+	public void reset(int topN) {
+		if (topN > indexes.length) {
+			indexes = new int[topN];
+			scores = new float[topN];
+		}
+		capacity = topN;
+		size = 0;
+	}
+
+	private void siftUp(int start) {
+		while (start > 0) {
+			int parent = (start - 1) >>> 1;
+			if (!isWorse(indexes[start], scores[start], indexes[parent], scores[parent])) return;
+			swap(indexes, scores, parent, start);
+			start = parent;
+		}
+	}
+
+	private static void siftDown(int[] indexes, float[] scores, int root, int size) {
+		while (root * 2 + 1 < size) {
+			int child = root * 2 + 1;
+			if (child + 1 < size && isWorse(indexes[child + 1], scores[child + 1], indexes[child], scores[child])) {
+				child = child + 1;
+			}
+			if (isWorse(indexes[child], scores[child], indexes[root], scores[root])) {
+				swap(indexes, scores, root, child);
+				root = child;
+			} else {
+				return;
+			}
+		}
+	}
+
+	private static void swap(int[] indexes, float[] scores, int idx1, int idx2) {
+		int i = indexes[idx1];
+		float s = scores[idx1];
+		indexes[idx1] = indexes[idx2];
+		indexes[idx2] = i;
+		scores[idx1] = scores[idx2];
+		scores[idx2] = s;
+	}
+}
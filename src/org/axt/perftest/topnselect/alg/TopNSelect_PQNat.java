@@ -5,28 +5,84 @@ import java.util.NoSuchElementException;
 
 public class TopNSelect_PQNat implements TopNSelectAlg {
 
-	interface IntDoubleComparator {
-		public int compare(int i1, double f1, int i2, double f2);
+	/**
+	 * Built-in orderings of the queue. Instead of a comparator called on every sift step, the entries are
+	 * stored transformed (score multiplied by scoreSign, index xor-ed with indexMask), so that every
+	 * ordering becomes "higher score first, lower index wins" and all of them share the same inlined
+	 * sift loops. Entries are transformed back when they leave the queue.
+	 */
+	public enum Order {
+		/** the top N: higher score first, lower index wins on equal score */
+		TOP_LOWER_INDEX(1.0, 0),
+		TOP_HIGHER_INDEX(1.0, -1),
+		/** the bottom N: lower score first, lower index wins on equal score */
+		BOTTOM_LOWER_INDEX(-1.0, 0),
+		BOTTOM_HIGHER_INDEX(-1.0, -1);
+
+		final double scoreSign;
+		final int indexMask;
+
+		private Order(double scoreSign, int indexMask) {
+			this.scoreSign = scoreSign;
+			this.indexMask = indexMask;
+		}
 	}
 
 	static class IntDoublePriorityQueue {
 
 		int elementCount = 0;
+		int capacity;
+		// stored in the transformed form of the order
 		int[] intarray; 
 		double[] doublearray;
 
-		final IntDoubleComparator comparator;
+		final Order order;
+		final double scoreSign;
+		final int indexMask;
 
-		public IntDoublePriorityQueue(int initialCapacity, IntDoubleComparator comparator) {
+		public IntDoublePriorityQueue(int initialCapacity, Order order) {
+			this.capacity = initialCapacity;
 			this.intarray = new int[initialCapacity];
 			this.doublearray = new double[initialCapacity];
 
-			this.comparator = comparator;
+			this.order = order;
+			this.scoreSign = order.scoreSign;
+			this.indexMask = order.indexMask;
+		}
+
+		// the max of the queue is the worst kept entry
+		private static boolean isWorse(int i1, double f1, int i2, double f2) {
+			return f1 < f2 || (f1 == f2 && i1 > i2);
 		}
 
 		public void add(int i, double f) {
-			if (elementCount >= intarray.length) {
-				if (comparator.compare(i, f, intarray[0], doublearray[0]) > 0) return;
+			addTransformed(i ^ indexMask, f * scoreSign);
+		}
+
+		/**
+		 * Adds the entries in [off, off+len) of the arrays. Once the queue is full, entries scoring below
+		 * its max are rejected in a tight loop without touching the heap.
+		 */
+		public void addAll(int[] is, double[] fs, int off, int len) {
+			int end = off + len;
+			int k = off;
+			for (; k < end && elementCount < capacity; k++) {
+				add(is[k], fs[k]);
+			}
+			if (elementCount == 0) return;
+
+			double threshold = doublearray[0];
+			for (; k < end; k++) {
+				double f = fs[k] * scoreSign;
+				if (f < threshold) continue;
+				addTransformed(is[k] ^ indexMask, f);
+				threshold = doublearray[0];
+			}
+		}
+
+		private void addTransformed(int i, double f) {
+			if (elementCount >= capacity) {
+				if (isWorse(i, f, intarray[0], doublearray[0])) return;
 				removeMax();
 			}
 			int idx = elementCount;
@@ -52,38 +108,93 @@ public class TopNSelect_PQNat implements TopNSelectAlg {
 
 		public int getIntMax() {
 			if (elementCount == 0) throw new NoSuchElementException("Queue is empty");
-			return intarray[0];
+			return intarray[0] ^ indexMask;
 		}
 
 		public double getdoubleMax() {
 			if (elementCount == 0) throw new NoSuchElementException("Queue is empty");
-			return doublearray[0];
+			return doublearray[0] * scoreSign;
 		}
 
 		public int size() {
 			return elementCount;
 		}
 
+		public int capacity() {
+			return capacity;
+		}
+
 		public void clear() {
 			elementCount = 0;
 		} 
+
+		/**
+		 * Clears the queue and changes its capacity, the arrays are only reallocated if they have to grow.
+		 */
+		public void reset(int capacity) {
+			if (capacity > intarray.length) {
+				intarray = new int[capacity];
+				doublearray = new double[capacity];
+			}
+			this.capacity = capacity;
+			elementCount = 0;
+		}
 		
 		public int[] toIntArray() {
-			return Arrays.copyOf(intarray, elementCount);
+			int[] ints = Arrays.copyOf(intarray, elementCount);
+			if (indexMask != 0) {
+				for (int k = 0; k < ints.length; k++) ints[k] ^= indexMask;
+			}
+			return ints;
 		}
 
 		public double[] todoubleArray() {
-			return Arrays.copyOf(doublearray, elementCount);
+			double[] doubles = Arrays.copyOf(doublearray, elementCount);
+			if (scoreSign != 1.0) {
+				for (int k = 0; k < doubles.length; k++) doubles[k] *= scoreSign;
+			}
+			return doubles;
+		}
+
+		public void sinkInto(TopNSelectAlg target) {
+			if (order == Order.TOP_LOWER_INDEX) {
+				target.sinkAll(intarray, doublearray, 0, elementCount);
+			} else {
+				for (int k = 0; k < elementCount; k++) {
+					target.sink(intarray[k] ^ indexMask, doublearray[k] * scoreSign);
+				}
+			}
+		}
+
+		/**
+		 * Copies the queue into the given arrays and drains the copy like a heap sort: the max goes to the end
+		 * of the shrinking heap, so the arrays end up best first. The queue is not changed.
+		 */
+		public void sortedCopy(int[] ints, double[] doubles) {
+			System.arraycopy(intarray, 0, ints, 0, elementCount);
+			System.arraycopy(doublearray, 0, doubles, 0, elementCount);
+			for (int end = elementCount - 1; end > 0; end--) {
+				swap(ints, doubles, 0, end);
+				siftDown(ints, doubles, 0, end - 1);
+			}
+			for (int k = 0; k < elementCount; k++) {
+				ints[k] ^= indexMask;
+				doubles[k] *= scoreSign;
+			}
 		}
 
 		private void siftDown(int start, int end) {
+			siftDown(intarray, doublearray, start, end);
+		}
+
+		private static void siftDown(int[] intarray, double[] doublearray, int start, int end) {
 			int root = start;
 			while (root * 2 + 1 <= end) {
 				int child = root * 2 + 1;
-				if (child + 1 <= end && comparator.compare(intarray[child], doublearray[child], intarray[child + 1], doublearray[child + 1]) < 0) {
+				if (child + 1 <= end && isWorse(intarray[child + 1], doublearray[child + 1], intarray[child], doublearray[child])) {
 					child = child + 1;
 				}
-				if (comparator.compare(intarray[root], doublearray[root], intarray[child], doublearray[child]) < 0) {
+				if (isWorse(intarray[child], doublearray[child], intarray[root], doublearray[root])) {
 					swap(intarray, doublearray, root, child);
 					root = child;
 				} else {
@@ -95,7 +206,7 @@ public class TopNSelect_PQNat implements TopNSelectAlg {
 		private void siftUp(int start) {
 			while (start > 0) {
 				int parent = (start - 1) / 2;
-				if (comparator.compare(intarray[parent], doublearray[parent], intarray[start], doublearray[start]) >= 0) return;
+				if (!isWorse(intarray[start], doublearray[start], intarray[parent], doublearray[parent])) return;
 				swap(intarray, doublearray, parent, start);
 				start = parent;
 			}
@@ -116,12 +227,11 @@ public class TopNSelect_PQNat implements TopNSelectAlg {
 	final IntDoublePriorityQueue pq;
 
 	public TopNSelect_PQNat(int topN) {
-		pq = new IntDoublePriorityQueue(topN, new IntDoubleComparator() {
-			@Override
-			public int compare(int i1, double f1, int i2, double f2) {
-				return (f1 < f2 ? 1 : (f1 > f2 ? -1 : (i1 < i2 ? -1 : (i1 > i2 ? 1 : 0))));
-			}
-		});
+		this(topN, Order.TOP_LOWER_INDEX);
+	}
+
+	public TopNSelect_PQNat(int topN, Order order) {
+		pq = new IntDoublePriorityQueue(topN, order);
 	}
 
 	@Override
@@ -129,8 +239,35 @@ public class TopNSelect_PQNat implements TopNSelectAlg {
 		pq.add(index, score);
 	}
 
+	@Override
+	public void sinkAll(int[] indexes, double[] scores, int off, int len) {
+		pq.addAll(indexes, scores, off, len);
+	}
+
+	@Override
+	public void sinkInto(TopNSelectAlg target) {
+		pq.sinkInto(target);
+	}
+
 	@Override
 	public int[] getTopN(int topN) {
 		return pq.toIntArray();
 	}
+
+	@Override
+	public void getTopNSorted(int topN, TopNResult result) {
+		result.ensureCapacity(pq.size());
+		pq.sortedCopy(result.indexes, result.scores);
+		result.size = Math.min(topN, pq.size());
+	}
+
+	@Override
+	public void reset() {
+		pq.clear();
+	}
+
+	@Override
+	public void reset(int topN) {
+		pq.reset(topN);
+	}
 }
@@ -0,0 +1,189 @@
+package org.axt.perftest.topnselect.alg;
+
+import java.util.Arrays;
+
+/**
+ * QSFixed-style buffered quickselect over a single long[]. Every (index, score) pair is packed
+ * into one order-preserving key: the high 32 bits hold the sortable bit pattern of the score
+ * rounded to float, the low 32 bits the inverted index, so that a larger key is always the better
+ * entry (higher score, then lower index). A swap moves one long and a comparison is a single
+ * primitive compare.
+ * Scores are ranked with float precision, so doubles which only differ beyond it are treated as
+ * equal and are ordered by index.
+ */
+public class TopNSelect_Packed implements TopNSelectAlg {
+
+	private final double loadFactor;
+	private int topN;
+	private int capacity;
+	private long[] keys;
+	private int elementIndex = 0;
+
+	// the worst key kept by the last compaction, Long.MIN_VALUE can not be produced by encode()
+	private long cutKey = Long.MIN_VALUE;
+
+	public TopNSelect_Packed(int topN) {
+		this(topN, 1.5);
+	}
+
+	public TopNSelect_Packed(int topN, double loadFactor) {
+		this.loadFactor = loadFactor;
+		this.topN = topN;
+		this.capacity = capacityFor(topN);
+		this.keys = new long[capacity];
+	}
+
+	private int capacityFor(int topN) {
+		return Math.max(10, (int) (loadFactor * topN));
+	}
+
+	public static long encode(int index, double score) {
+		// + 0.0f folds -0.0 into 0.0, the two zeros have to tie like they do with ==
+		int bits = Float.floatToIntBits((float) score + 0.0f);
+		int sortable = bits ^ ((bits >> 31) & 0x7fffffff);
+		return ((long) sortable << 32) | ((index ^ 0x7fffffff) & 0xffffffffL);
+	}
+
+	public static int decodeIndex(long key) {
+		return ((int) key) ^ 0x7fffffff;
+	}
+
+	public static double decodeScore(long key) {
+		int sortable = (int) (key >> 32);
+		return Float.intBitsToFloat(sortable ^ ((sortable >> 31) & 0x7fffffff));
+	}
+
+	@Override
+	public void sink(int index, double score) {
+		long key = encode(index, score);
+		if (key <= cutKey) return;
+
+		if (elementIndex == capacity) {
+			compact();
+			if (key <= cutKey) return;
+		}
+		keys[elementIndex++] = key;
+	}
+
+	@Override
+	public void sinkAll(int[] indexes, double[] scores, int off, int len) {
+		int end = off + len;
+		for (int i = off; i < end; i++) {
+			long key = encode(indexes[i], scores[i]);
+			if (key <= cutKey) continue;
+
+			if (elementIndex == capacity) {
+				compact();
+				if (key <= cutKey) continue;
+			}
+			keys[elementIndex++] = key;
+		}
+	}
+
+	private void compact() {
+		select(keys, capacity - 1, topN);
+		elementIndex = topN;
+
+		long worst = Long.MAX_VALUE;
+		for (int i = 0; i < topN; i++) {
+			if (keys[i] < worst) worst = keys[i];
+		}
+		cutKey = worst;
+	}
+
+	@Override
+	public void sinkInto(TopNSelectAlg target) {
+		for (int i = 0; i < elementIndex; i++) {
+			target.sink(decodeIndex(keys[i]), decodeScore(keys[i]));
+		}
+	}
+
+	@Override
+	public int[] getTopN(int topN) {
+		int len = Math.min(topN, elementIndex);
+		if (len < elementIndex) {
+			select(keys, elementIndex - 1, len);
+		}
+		int[] indexes = new int[len];
+		for (int i = 0; i < len; i++) {
+			indexes[i] = decodeIndex(keys[i]);
+		}
+		return indexes;
+	}
+
+	@Override
+	public void getTopNSorted(int topN, TopNResult result) {
+		int len = Math.min(topN, elementIndex);
+		if (len < elementIndex) {
+			select(keys, elementIndex - 1, len);
+		}
+		Arrays.sort(keys, 0, len);
+
+		result.ensureCapacity(len);
+		for (int i = 0; i < len; i++) {
+			long key = keys[len - 1 - i];
+			result.indexes[i] = decodeIndex(key);
+			result.scores[i] = decodeScore(key);
+		}
+		result.size = len;
+	}
+
+	@Override
+	public void reset() {
+		elementIndex = 0;
+		cutKey = Long.MIN_VALUE;
+	}
+
+	@Override
+	public void reset(int topN) {
+		int capacity = capacityFor(topN);
+		if (capacity > keys.length) {
+			keys = new long[capacity];
+		}
+		this.capacity = capacity;
+		this.topN = topN;
+		reset();
+	}
+
+	// moves the topN largest keys of [0, right] to the front, in no particular order
+	static void select(long[] keys, int right, int topN) {
+		int left = 0;
+		while (left < right) {
+			int mid = (left + right) >>> 1;
+			// median of 3 on the values, moved to mid
+			if (keys[left] < keys[mid]) swap(keys, left, mid);
+			if (keys[left] < keys[right]) swap(keys, left, right);
+			if (keys[mid] < keys[right]) swap(keys, mid, right);
+
+			int pivotNewIndex = partition(keys, left, right, mid);
+			if (pivotNewIndex > topN) {
+				right = pivotNewIndex - 1;
+			} else if (pivotNewIndex < topN) {
+				left = pivotNewIndex + 1;
+			} else {
+				break;
+			}
+		}
+	}
+
+	private static int partition(long[] keys, int left, int right, int pivotIndex) {
+		long pivotValue = keys[pivotIndex];
+		swap(keys, pivotIndex, right);
+
+		int storeIndex = left;
+		for (int i = left; i < right; i++) {
+			if (keys[i] > pivotValue) {
+				swap(keys, storeIndex, i);
+				storeIndex++;
+			}
+		}
+		swap(keys, right, storeIndex);
+		return storeIndex;
+	}
+
+	private static void swap(long[] keys, int idx1, int idx2) {
+		long k = keys[idx1];
+		keys[idx1] = keys[idx2];
+		keys[idx2] = k;
+	}
+}
@@ -0,0 +1,108 @@
+package org.axt.perftest.topnselect.alg;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.IntFunction;
+
+/**
+ * Splits the chunks given to sinkAll across a ForkJoinPool. Every leaf task selects into its own
+ * instance created by the factory for the current topN (e.g. TopNSelect_PQNat::new), and the partial
+ * results are merged pairwise on the way back up the task tree.
+ * Single sink calls go directly to the accumulated result, so they are not parallelized.
+ */
+public class TopNSelect_Parallel implements TopNSelectAlg {
+
+	public static final int DEFAULT_MIN_CHUNK = 1 << 16;
+
+	private final ForkJoinPool pool;
+	private final IntFunction<? extends TopNSelectAlg> factory;
+	private final int minChunk;
+	private final TopNSelectAlg result;
+	private volatile int topN;
+
+	public TopNSelect_Parallel(int topN, IntFunction<? extends TopNSelectAlg> factory) {
+		this(ForkJoinPool.commonPool(), topN, factory, DEFAULT_MIN_CHUNK);
+	}
+
+	public TopNSelect_Parallel(ForkJoinPool pool, int topN, IntFunction<? extends TopNSelectAlg> factory, int minChunk) {
+		this.pool = pool;
+		this.factory = factory;
+		this.minChunk = Math.max(1, minChunk);
+		this.topN = topN;
+		this.result = factory.apply(topN);
+	}
+
+	private class SelectTask extends RecursiveTask<TopNSelectAlg> {
+		private static final long serialVersionUID = 1L;
+
+		private final int[] indexes;
+		private final double[] scores;
+		private final int off;
+		private final int len;
+
+		SelectTask(int[] indexes, double[] scores, int off, int len) {
+			this.indexes = indexes;
+			this.scores = scores;
+			this.off = off;
+			this.len = len;
+		}
+
+		@Override
+		protected TopNSelectAlg compute() {
+			if (len <= minChunk) {
+				TopNSelectAlg alg = factory.apply(topN);
+				alg.sinkAll(indexes, scores, off, len);
+				return alg;
+			}
+			int half = len >>> 1;
+			SelectTask left = new SelectTask(indexes, scores, off, half);
+			SelectTask right = new SelectTask(indexes, scores, off + half, len - half);
+			left.fork();
+			TopNSelectAlg rightResult = right.compute();
+			TopNSelectAlg leftResult = left.join();
+			leftResult.merge(rightResult);
+			return leftResult;
+		}
+	}
+
+	@Override
+	public void sink(int index, double score) {
+		result.sink(index, score);
+	}
+
+	@Override
+	public void sinkAll(int[] indexes, double[] scores, int off, int len) {
+		if (len <= minChunk) {
+			result.sinkAll(indexes, scores, off, len);
+		} else {
+			result.merge(pool.invoke(new SelectTask(indexes, scores, off, len)));
+		}
+	}
+
+	@Override
+	public void sinkInto(TopNSelectAlg target) {
+		result.sinkInto(target);
+	}
+
+	@Override
+	public int[] getTopN(int topN) {
+		return result.getTopN(topN);
+	}
+
+	@Override
+	public void getTopNSorted(int topN, TopNResult result) {
+		this.result.getTopNSorted(topN, result);
+	}
+
+	@Override
+	public void reset() {
+		result.reset();
+	}
+
+	// the leaf instances are created per sinkAll call, they pick up the new topN from the factory
+	@Override
+	public void reset(int topN) {
+		this.topN = topN;
+		result.reset(topN);
+	}
+}
@@ -5,7 +5,7 @@ import java.util.Arrays;
 public class TopNSelect_QS implements TopNSelectAlg {
 
 	public enum ALG {
-		MEDIAN, MED3, RAND
+		MEDIAN, MED3, RAND, INTRO
 	}
 
 	static class IntVector {
@@ -38,6 +38,10 @@ public class TopNSelect_QS implements TopNSelectAlg {
 			return elementCount;
 		}
 
+		public void clear() {
+			elementCount = 0;
+		}
+
 		private void increaseCapacity(int newCapacity) {
 			int oldCapacity = array.length;
 			assert (newCapacity > oldCapacity);
@@ -83,6 +87,10 @@ public class TopNSelect_QS implements TopNSelectAlg {
 			return elementCount;
 		}
 
+		public void clear() {
+			elementCount = 0;
+		}
+
 		private void increaseCapacity(int newCapacity) {
 			int oldCapacity = array.length;
 			assert (newCapacity > oldCapacity);
@@ -124,27 +132,63 @@ public class TopNSelect_QS implements TopNSelectAlg {
 		indexes.add(index);
 	}
 
+	@Override
+	public void sinkInto(TopNSelectAlg target) {
+		target.sinkAll(indexes.array, scores.array, 0, indexes.size());
+	}
+
 	@Override
 	public int[] getTopN(int topN) {
 		int[] itemidx = indexes.toArray();
 		double[] score = scores.toArray();
 
+		orderTop(score, itemidx, topN, -1);
+
+		int len = Math.min(topN, score.length);
+		return Arrays.copyOf(itemidx, len);
+	}
+
+	// selects in place on the vectors, only the order of the sunk entries changes
+	@Override
+	public void getTopNSorted(int topN, TopNResult result) {
+		int n = indexes.size();
+		int len = Math.min(topN, n);
+		if (len < n) {
+			orderTop(scores.array, indexes.array, len, n - 1);
+		}
+		result.set(indexes.array, scores.array, len);
+		sortTheTopN(result.scores, result.indexes, 0, len);
+	}
+
+	protected void orderTop(double[] score, int[] idx, int topN, int rightX) {
 		switch (alg) {
 			case MED3:
-				orderTheTopN3(score, itemidx, topN, -1);
+				orderTheTopN3(score, idx, topN, rightX);
 				break;
 			case MEDIAN:
-				orderTheTopN(score, itemidx, topN, -1);
+				orderTheTopN(score, idx, topN, rightX);
 				break;
 			case RAND:
-				orderTheTopNRand(score, itemidx, topN, -1);
+				orderTheTopNRand(score, idx, topN, rightX);
+				break;
+			case INTRO:
+				orderTheTopNIntro(score, idx, topN, rightX);
 				break;
 			default:
 				throw new RuntimeException("ALG not implemented " + alg);
 		}
+	}
 
-		int len = Math.min(topN, score.length);
-		return Arrays.copyOf(itemidx, len);
+	@Override
+	public void reset() {
+		indexes.clear();
+		scores.clear();
+	}
+
+	// the grown vectors are kept, topN only matters at getTopN
+	@Override
+	public void reset(int topN) {
+		reset();
 	}
 
 	// az topN-et a tomb elejere rendezi, kozben modositja az eredeti tombot.
@@ -226,6 +270,109 @@ public class TopNSelect_QS implements TopNSelectAlg {
 		}
 	}
 
+	/**
+	 * Introselect: quickselect with a median-of-3 (ninther for larger ranges) pivot chosen on the values,
+	 * falling back to heap select once the recursion depth exceeds 2*log2(n), so sorted or adversarial
+	 * input can not make it quadratic.
+	 */
+	public static void orderTheTopNIntro(double[] score, int[] idx, int topN, int rightX) {
+		int left = 0;
+		int right = rightX != -1 ? Math.min(rightX, (score.length - 1))
+				: (score.length - 1);
+		int depthLimit = 2 * (32 - Integer.numberOfLeadingZeros(right - left + 1));
+
+		while (left < right) {
+			if (depthLimit-- == 0) {
+				heapSelect(score, idx, left, right, topN);
+				return;
+			}
+
+			int pivotIndex = medianPivot(score, idx, left, right);
+			int pivotNewIndex = partition(score, idx, left, right, pivotIndex);
+			if (pivotNewIndex > topN) {
+				right = pivotNewIndex - 1;
+			} else if (pivotNewIndex < topN) {
+				left = pivotNewIndex + 1;
+			} else {
+				break;
+			}
+		}
+	}
+
+	private static boolean isBetter(double[] score, int[] idx, int i1, int i2) {
+		return score[i1] > score[i2] || (score[i1] == score[i2] && idx[i1] < idx[i2]);
+	}
+
+	private static int medianOf3(double[] score, int[] idx, int a, int b, int c) {
+		if (isBetter(score, idx, a, b)) {
+			if (isBetter(score, idx, b, c)) return b;
+			return isBetter(score, idx, a, c) ? c : a;
+		} else {
+			if (isBetter(score, idx, a, c)) return a;
+			return isBetter(score, idx, b, c) ? c : b;
+		}
+	}
+
+	private static int medianPivot(double[] score, int[] idx, int left, int right) {
+		int mid = (left + right) >>> 1;
+		int size = right - left + 1;
+		if (size > 40) {
+			int s = size / 8;
+			return medianOf3(score, idx,
+					medianOf3(score, idx, left, left + s, left + 2 * s),
+					medianOf3(score, idx, mid - s, mid, mid + s),
+					medianOf3(score, idx, right - 2 * s, right - s, right));
+		}
+		return medianOf3(score, idx, left, mid, right);
+	}
+
+	/**
+	 * Sorts [from, to) in rank order (best first) with an in-place heap sort, meant for the selected top N prefix.
+	 */
+	public static void sortTheTopN(double[] score, int[] idx, int from, int to) {
+		int size = to - from;
+		for (int i = (size >>> 1) - 1; i >= 0; i--) {
+			siftDownWorst(score, idx, from, i, size);
+		}
+		// the root is the worst entry, it goes to the end of the shrinking heap
+		for (int end = size - 1; end > 0; end--) {
+			swap(score, idx, from, from + end);
+			siftDownWorst(score, idx, from, 0, end);
+		}
+	}
+
+	// moves the best (topN - left) entries of [left, right] to [left, topN) using a bounded heap
+	private static void heapSelect(double[] score, int[] idx, int left, int right, int topN) {
+		int size = topN - left;
+		if (size <= 0 || topN > right) return;
+
+		for (int i = (size >>> 1) - 1; i >= 0; i--) {
+			siftDownWorst(score, idx, left, i, size);
+		}
+		for (int i = topN; i <= right; i++) {
+			if (isBetter(score, idx, i, left)) {
+				swap(score, idx, i, left);
+				siftDownWorst(score, idx, left, 0, size);
+			}
+		}
+	}
+
+	// the heap is stored at [base, base + size), its root is the worst entry
+	private static void siftDownWorst(double[] score, int[] idx, int base, int root, int size) {
+		while (root * 2 + 1 < size) {
+			int child = root * 2 + 1;
+			if (child + 1 < size && isBetter(score, idx, base + child, base + child + 1)) {
+				child = child + 1;
+			}
+			if (isBetter(score, idx, base + root, base + child)) {
+				swap(score, idx, base + root, base + child);
+				root = child;
+			} else {
+				return;
+			}
+		}
+	}
+
 	private static int partition(double[] score, int[] idx, int left, int right,
 			int pivotIndex) {
 		double pivotValue = score[pivotIndex];
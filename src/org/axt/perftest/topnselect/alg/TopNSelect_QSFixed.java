@@ -1,5 +1,6 @@
 package org.axt.perftest.topnselect.alg;
 
+import java.util.Arrays;
 
 public class TopNSelect_QSFixed extends TopNSelect_QS {
 
@@ -7,7 +8,14 @@ public class TopNSelect_QSFixed extends TopNSelect_QS {
 	protected double[] scores2;
 
 	int elementIndex = 0;
-	private final int topN;
+	private int capacity;
+	private int topN;
+	private final double loadFactor;
+
+	// the worst of the top N kept by the last compaction, anything not better than it can be dropped.
+	// NaN until the first compaction, so that no comparison rejects anything.
+	private double cutScore = Double.NaN;
+	private int cutIndex;
 
 	public TopNSelect_QSFixed(ALG alg, int topN) {
 		this(alg, topN, 1.5);
@@ -16,38 +24,105 @@ public class TopNSelect_QSFixed extends TopNSelect_QS {
 	public TopNSelect_QSFixed(ALG alg, int topN, double loadFactor) {
 		super(alg, 1);
 		this.topN = topN;
-		indexes2 = new int[Math.max(10, (int) (loadFactor * topN))];
-		scores2 = new double[Math.max(10, (int) (loadFactor * topN))];
+		this.loadFactor = loadFactor;
+		this.capacity = capacityFor(topN);
+		indexes2 = new int[capacity];
+		scores2 = new double[capacity];
+	}
+
+	private int capacityFor(int topN) {
+		return Math.max(10, (int) (loadFactor * topN));
 	}
 
 	@Override
 	public void sink(int index, double score) {
+		admit(index, score);
+	}
 
-		if (elementIndex == indexes2.length) {
-			orderTop(topN, -1);
-			elementIndex = topN;
+	@Override
+	public void sinkAll(int[] indexes, double[] scores, int off, int len) {
+		int end = off + len;
+		for (int i = off; i < end; i++) {
+			admit(indexes[i], scores[i]);
+		}
+	}
+
+	@Override
+	public void sinkInto(TopNSelectAlg target) {
+		target.sinkAll(indexes2, scores2, 0, elementIndex);
+	}
+
+	@Override
+	public int[] getTopN(int topN) {
+		int len = Math.min(topN, elementIndex);
+		if (len < elementIndex) {
+			orderTop(len, elementIndex - 1);
+		}
+		return Arrays.copyOf(indexes2, len);
+	}
+
+	@Override
+	public void getTopNSorted(int topN, TopNResult result) {
+		int len = Math.min(topN, elementIndex);
+		if (len < elementIndex) {
+			orderTop(len, elementIndex - 1);
+		}
+		result.set(indexes2, scores2, len);
+		sortTheTopN(result.scores, result.indexes, 0, len);
+	}
+
+	@Override
+	public void reset() {
+		elementIndex = 0;
+		cutScore = Double.NaN;
+	}
+
+	@Override
+	public void reset(int topN) {
+		int capacity = capacityFor(topN);
+		if (capacity > indexes2.length) {
+			indexes2 = new int[capacity];
+			scores2 = new double[capacity];
+		}
+		this.capacity = capacity;
+		this.topN = topN;
+		reset();
+	}
+
+	// the cutoff check of sink and sinkAll, compacts when the buffer is full
+	private void admit(int index, double score) {
+		if (isDominated(index, score)) return;
+
+		if (elementIndex == capacity) {
+			compact();
+			if (isDominated(index, score)) return;
 		}
 
 		scores2[elementIndex] = score;
 		indexes2[elementIndex] = index;
 		elementIndex++;
+	}
 
+	private boolean isDominated(int index, double score) {
+		return score < cutScore || (score == cutScore && index >= cutIndex);
 	}
 
-	private void orderTop(int topN, int rightX) {
-		switch (alg) {
-			case MED3:
-				orderTheTopN3(scores2, indexes2, topN, rightX);
-				break;
-			case MEDIAN:
-				orderTheTopN(scores2, indexes2, topN, rightX);
-				break;
-			case RAND:
-				orderTheTopNRand(scores2, indexes2, topN, rightX);
-				break;
-			default:
-				throw new RuntimeException("ALG not implemented " + alg);
+	private void compact() {
+		orderTop(topN, capacity - 1);
+		elementIndex = topN;
 
+		// the top N are unordered after the quickselect, a linear scan finds the worst of them
+		int worst = 0;
+		for (int i = 1; i < topN; i++) {
+			if (scores2[i] < scores2[worst] || (scores2[i] == scores2[worst] && indexes2[i] > indexes2[worst])) {
+				worst = i;
+			}
 		}
+		cutScore = scores2[worst];
+		cutIndex = indexes2[worst];
+	}
+
+	private void orderTop(int topN, int rightX) {
+		orderTop(scores2, indexes2, topN, rightX);
 	}
 }
@@ -0,0 +1,158 @@
+package org.axt.perftest.topnselect.alg;
+
+import java.util.Arrays;
+
+import org.axt.perftest.topnselect.alg.TopNSelect_QS.DoubleVector;
+import org.axt.perftest.topnselect.alg.TopNSelect_QS.IntVector;
+
+/**
+ * Radix select: every pass builds a histogram of the next 8 bits of the key over the remaining
+ * candidates, finds the bucket containing the k-th entry, takes everything above it and keeps only
+ * that bucket for the next pass. The key is the sortable bit pattern of the score (8 passes)
+ * followed by the inverted index (4 passes), so the result is the same as the quickselect one:
+ * higher score first, lower index wins on equal score.
+ * Every pass is linear and there is no pivot whose quality depends on the data.
+ */
+public class TopNSelect_Radix implements TopNSelectAlg {
+
+	private static final int RADIX_BITS = 8;
+	private static final int RADIX = 1 << RADIX_BITS;
+	private static final int SCORE_PASSES = 64 / RADIX_BITS;
+	private static final int PASSES = SCORE_PASSES + 32 / RADIX_BITS;
+
+	private static final int defaultInitialCapacity = 25000;
+
+	private final IntVector indexes;
+	private final DoubleVector scores;
+
+	private final int[] histogram = new int[RADIX];
+	private int[] candidates = new int[0];
+
+	public TopNSelect_Radix() {
+		this(defaultInitialCapacity);
+	}
+
+	public TopNSelect_Radix(int initialCapacity) {
+		indexes = new IntVector(initialCapacity);
+		scores = new DoubleVector(initialCapacity);
+	}
+
+	@Override
+	public void sink(int index, double score) {
+		scores.add(score);
+		indexes.add(index);
+	}
+
+	@Override
+	public void sinkInto(TopNSelectAlg target) {
+		target.sinkAll(indexes.array, scores.array, 0, indexes.size());
+	}
+
+	// unsigned digit of the key, a larger digit is always the better entry
+	private static int digit(int index, double score, int pass) {
+		if (pass < SCORE_PASSES) {
+			// +0.0 turns -0.0 into 0.0, they are equal scores for the other algorithms as well
+			long bits = Double.doubleToLongBits(score + 0.0);
+			long key = bits ^ ((bits >> 63) | Long.MIN_VALUE);
+			return (int) (key >>> (64 - RADIX_BITS * (pass + 1))) & (RADIX - 1);
+		} else {
+			int key = index ^ 0x7fffffff;
+			return (key >>> (32 - RADIX_BITS * (pass - SCORE_PASSES + 1))) & (RADIX - 1);
+		}
+	}
+
+	@Override
+	public int[] getTopN(int topN) {
+		int len = Math.min(topN, indexes.size());
+		int[] result = new int[len];
+		selectPositions(len, result);
+		for (int i = 0; i < len; i++) {
+			result[i] = indexes.array[result[i]];
+		}
+		return result;
+	}
+
+	@Override
+	public void getTopNSorted(int topN, TopNResult result) {
+		int len = Math.min(topN, indexes.size());
+		result.ensureCapacity(len);
+		int[] positions = result.indexes;
+		selectPositions(len, positions);
+		for (int i = 0; i < len; i++) {
+			int position = positions[i];
+			result.indexes[i] = indexes.array[position];
+			result.scores[i] = scores.array[position];
+		}
+		result.size = len;
+		TopNSelect_QS.sortTheTopN(result.scores, result.indexes, 0, len);
+	}
+
+	// puts the positions of the best len entries into result[0, len)
+	private void selectPositions(int len, int[] result) {
+		int n = indexes.size();
+		if (len == n) {
+			for (int i = 0; i < n; i++) {
+				result[i] = i;
+			}
+			return;
+		}
+
+		int[] idx = indexes.array;
+		double[] score = scores.array;
+		if (candidates.length < n) {
+			candidates = new int[n];
+		}
+
+		int found = 0;
+		int candidateCount = n;
+		// the first pass runs over every entry, the later ones over the candidates array
+		boolean all = true;
+		for (int pass = 0; pass < PASSES && found < len; pass++) {
+			Arrays.fill(histogram, 0);
+			for (int c = 0; c < candidateCount; c++) {
+				int i = all ? c : candidates[c];
+				histogram[digit(idx[i], score[i], pass)]++;
+			}
+
+			int need = len - found;
+			int bucket = RADIX - 1;
+			int above = 0;
+			while (above + histogram[bucket] < need) {
+				above += histogram[bucket--];
+			}
+
+			int next = 0;
+			for (int c = 0; c < candidateCount; c++) {
+				int i = all ? c : candidates[c];
+				int d = digit(idx[i], score[i], pass);
+				if (d > bucket) {
+					result[found++] = i;
+				} else if (d == bucket) {
+					candidates[next++] = i;
+				}
+			}
+			all = false;
+			candidateCount = next;
+
+			if (found + candidateCount == len) {
+				break;
+			}
+		}
+
+		// the remaining candidates are either all needed, or they are equal in both score and index
+		for (int c = 0; found < len; c++) {
+			result[found++] = candidates[c];
+		}
+	}
+
+	@Override
+	public void reset() {
+		indexes.clear();
+		scores.clear();
+	}
+
+	@Override
+	public void reset(int topN) {
+		reset();
+	}
+}
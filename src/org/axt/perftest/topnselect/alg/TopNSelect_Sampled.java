@@ -0,0 +1,140 @@
+package org.axt.perftest.topnselect.alg;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Pre-filter in front of any TopNSelectAlg for very large chunks with a small k. For every sinkAll
+ * chunk the k-th best score is estimated from a random sample, lowered by a slack, and only the
+ * entries scoring at least that threshold are passed to the delegate.
+ * The result stays exact: if at least topN entries of the chunk pass, the top N of the chunk all
+ * scored at least the threshold, so they all passed. Otherwise the entries below the threshold are
+ * passed as well in a second pass over the chunk.
+ * Single sink calls and small chunks go to the delegate unfiltered.
+ */
+public class TopNSelect_Sampled implements TopNSelectAlg {
+
+	public static final int DEFAULT_SAMPLE_SIZE = 1024;
+	public static final double DEFAULT_SLACK = 2.0;
+
+	private static final int BATCH_SIZE = 4096;
+
+	private final TopNSelectAlg delegate;
+	private int topN;
+	private final double slack;
+	private final double[] sample;
+	private final Random random;
+
+	private final int[] batchIndexes = new int[BATCH_SIZE];
+	private final double[] batchScores = new double[BATCH_SIZE];
+	private int batchSize = 0;
+
+	private long fallbacks = 0;
+
+	public TopNSelect_Sampled(TopNSelectAlg delegate, int topN) {
+		this(delegate, topN, DEFAULT_SAMPLE_SIZE, DEFAULT_SLACK, new Random());
+	}
+
+	/**
+	 * @param slack the expected rank of the k-th best entry in the sample is multiplied by it, a larger slack
+	 * lets more entries pass but makes the fallback pass less likely
+	 */
+	public TopNSelect_Sampled(TopNSelectAlg delegate, int topN, int sampleSize, double slack, Random random) {
+		this.delegate = delegate;
+		this.topN = topN;
+		this.slack = slack;
+		this.sample = new double[sampleSize];
+		this.random = random;
+	}
+
+	/**
+	 * @return the number of chunks where too few entries passed the estimated threshold
+	 */
+	public long getFallbacks() {
+		return fallbacks;
+	}
+
+	@Override
+	public void sink(int index, double score) {
+		delegate.sink(index, score);
+	}
+
+	@Override
+	public void sinkAll(int[] indexes, double[] scores, int off, int len) {
+		int sampleSize = sample.length;
+		// the rank of the threshold in the sample, with slack and a few extra entries for small expected ranks
+		double expectedRank = (double) topN * sampleSize / len;
+		int rank = (int) Math.ceil(expectedRank * slack) + 3;
+		if (len < 16 * sampleSize || rank >= sampleSize / 2) {
+			delegate.sinkAll(indexes, scores, off, len);
+			return;
+		}
+
+		for (int i = 0; i < sampleSize; i++) {
+			sample[i] = scores[off + random.nextInt(len)];
+		}
+		Arrays.sort(sample);
+		double threshold = sample[sampleSize - rank];
+
+		int end = off + len;
+		int passed = 0;
+		for (int i = off; i < end; i++) {
+			double score = scores[i];
+			if (score < threshold) continue;
+			add(indexes[i], score);
+			passed++;
+		}
+
+		if (passed < topN) {
+			fallbacks++;
+			for (int i = off; i < end; i++) {
+				double score = scores[i];
+				if (score < threshold) {
+					add(indexes[i], score);
+				}
+			}
+		}
+		flush();
+	}
+
+	private void add(int index, double score) {
+		batchIndexes[batchSize] = index;
+		batchScores[batchSize] = score;
+		if (++batchSize == BATCH_SIZE) {
+			flush();
+		}
+	}
+
+	private void flush() {
+		delegate.sinkAll(batchIndexes, batchScores, 0, batchSize);
+		batchSize = 0;
+	}
+
+	@Override
+	public void sinkInto(TopNSelectAlg target) {
+		delegate.sinkInto(target);
+	}
+
+	@Override
+	public int[] getTopN(int topN) {
+		return delegate.getTopN(topN);
+	}
+
+	@Override
+	public void getTopNSorted(int topN, TopNResult result) {
+		delegate.getTopNSorted(topN, result);
+	}
+
+	@Override
+	public void reset() {
+		delegate.reset();
+		fallbacks = 0;
+	}
+
+	@Override
+	public void reset(int topN) {
+		delegate.reset(topN);
+		this.topN = topN;
+		fallbacks = 0;
+	}
+}
@@ -0,0 +1,143 @@
+package org.axt.perftest.topnselect.alg;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Sliding window top N over a continuous stream, either over the last n events or over the last
+ * time period. The window is split into a ring of sub-windows, each of them keeping its own bounded
+ * TopNSelect_PQNat, so a sink costs O(log k) and expiry is clearing the oldest sub-window (its
+ * arrays are reused). getTopN merges the live sub-windows.
+ * The oldest sub-window expires as a whole, so the covered range is between
+ * window - window/bucketCount and window.
+ */
+public class TopNSelect_Window implements TopNSelectAlg {
+
+	private final TopNSelect_PQNat[] buckets;
+	private final long bucketSpan;
+	// null for count based windows, where the position in the stream is the clock
+	private final LongSupplier clock;
+	private final TopNSelect_PQNat merged;
+
+	private int topN;
+	private int current = 0;
+	private long bucketEnd;
+	private long events = 0;
+
+	public static TopNSelect_Window countWindow(int topN, long windowEvents, int bucketCount) {
+		return new TopNSelect_Window(topN, windowEvents, bucketCount, null);
+	}
+
+	public static TopNSelect_Window timeWindow(int topN, long window, TimeUnit unit, int bucketCount) {
+		return new TopNSelect_Window(topN, unit.toNanos(window), bucketCount, new LongSupplier() {
+			@Override
+			public long getAsLong() {
+				return System.nanoTime();
+			}
+		});
+	}
+
+	/**
+	 * @param window length of the window in the units of the clock, or in events if clock is null
+	 */
+	public TopNSelect_Window(int topN, long window, int bucketCount, LongSupplier clock) {
+		this.topN = topN;
+		this.clock = clock;
+		this.bucketSpan = Math.max(1, window / bucketCount);
+		this.buckets = new TopNSelect_PQNat[bucketCount];
+		for (int i = 0; i < bucketCount; i++) {
+			buckets[i] = new TopNSelect_PQNat(topN);
+		}
+		this.merged = new TopNSelect_PQNat(topN);
+		this.bucketEnd = now() + bucketSpan;
+	}
+
+	private long now() {
+		return clock == null ? events : clock.getAsLong();
+	}
+
+	// rotates the ring until the current bucket covers now, clearing the expired buckets
+	private void advance(long now) {
+		if (now < bucketEnd) return;
+
+		long steps = (now - bucketEnd) / bucketSpan + 1;
+		if (steps >= buckets.length) {
+			for (TopNSelect_PQNat bucket : buckets) {
+				bucket.reset();
+			}
+		} else {
+			for (long i = 0; i < steps; i++) {
+				current = (current + 1) % buckets.length;
+				buckets[current].reset();
+			}
+		}
+		bucketEnd += steps * bucketSpan;
+	}
+
+	@Override
+	public void sink(int index, double score) {
+		// nothing is kept, and the empty bucket queues have no root to compare against
+		if (topN == 0) return;
+		advance(now());
+		buckets[current].sink(index, score);
+		events++;
+	}
+
+	// a time based window stamps the whole chunk with a single clock read
+	@Override
+	public void sinkAll(int[] indexes, double[] scores, int off, int len) {
+		if (topN == 0) return;
+		int end = off + len;
+		int i = off;
+		while (i < end) {
+			long now = now();
+			advance(now);
+			int n = clock == null ? (int) Math.min(end - i, bucketEnd - now) : end - i;
+			buckets[current].sinkAll(indexes, scores, i, n);
+			events += n;
+			i += n;
+		}
+	}
+
+	private TopNSelect_PQNat merge(int topN) {
+		if (clock != null) {
+			advance(now());
+		}
+		merged.reset(Math.min(topN, this.topN));
+		for (TopNSelect_PQNat bucket : buckets) {
+			bucket.sinkInto(merged);
+		}
+		return merged;
+	}
+
+	@Override
+	public void sinkInto(TopNSelectAlg target) {
+		merge(topN).sinkInto(target);
+	}
+
+	@Override
+	public int[] getTopN(int topN) {
+		return merge(topN).getTopN(topN);
+	}
+
+	@Override
+	public void getTopNSorted(int topN, TopNResult result) {
+		merge(topN).getTopNSorted(topN, result);
+	}
+
+	@Override
+	public void reset() {
+		reset(topN);
+	}
+
+	@Override
+	public void reset(int topN) {
+		this.topN = topN;
+		for (TopNSelect_PQNat bucket : buckets) {
+			bucket.reset(topN);
+		}
+		current = 0;
+		events = 0;
+		bucketEnd = now() + bucketSpan;
+	}
+}
@@ -0,0 +1,66 @@
+package org.axt.perftest.topnselect.input;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+
+/**
+ * Seeded benchmark input, cached in memory-mapped files so that large inputs are generated only once.
+ * The cache directory is the gcfootprint.datasets system property, or gc-footprint-datasets in java.io.tmpdir.
+ */
+public class Datasets {
+
+	public static final long DEFAULT_SEED = 42;
+
+	private static final String FORMAT_VERSION = "v1";
+
+	private Datasets() {}
+
+	private static File cacheDir() {
+		String dir = System.getProperty("gcfootprint.datasets");
+		return dir != null ? new File(dir) : new File(System.getProperty("java.io.tmpdir"), "gc-footprint-datasets");
+	}
+
+	public static double[] scores(ScoreDistribution distribution, int n, long seed) throws IOException {
+		File file = new File(cacheDir(), "scores-" + distribution + "-" + n + "-" + seed + "-" + FORMAT_VERSION + ".bin");
+		double[] scores = new double[n];
+		if (file.length() == 8L * n) {
+			try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel ch = raf.getChannel()) {
+				MappedByteBuffer buffer = ch.map(FileChannel.MapMode.READ_ONLY, 0, 8L * n);
+				buffer.order(ByteOrder.nativeOrder()).asDoubleBuffer().get(scores);
+			}
+			return scores;
+		}
+
+		distribution.fill(scores, new Random(seed));
+
+		File dir = file.getParentFile();
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("cannot create dataset cache directory " + dir);
+		}
+		File tmp = new File(dir, file.getName() + ".tmp");
+		try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw"); FileChannel ch = raf.getChannel()) {
+			MappedByteBuffer buffer = ch.map(FileChannel.MapMode.READ_WRITE, 0, 8L * n);
+			buffer.order(ByteOrder.nativeOrder()).asDoubleBuffer().put(scores);
+			buffer.force();
+		}
+		if (!tmp.renameTo(file)) {
+			// another process may have written it in the meantime
+			tmp.delete();
+		}
+		return scores;
+	}
+
+	public static int[] indexes(int n, long seed) {
+		int[] indexes = new int[n];
+		Random r = new Random(seed);
+		for (int i = 0; i < n; i++) {
+			indexes[i] = r.nextInt();
+		}
+		return indexes;
+	}
+}
@@ -0,0 +1,118 @@
+package org.axt.perftest.topnselect.input;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Score distributions of the benchmark input. Every distribution is reproducible from the seed of the Random.
+ */
+public enum ScoreDistribution {
+
+	/** uniform in [0, 1) */
+	UNIFORM {
+		@Override
+		public void fill(double[] scores, Random r) {
+			for (int i = 0; i < scores.length; i++) {
+				scores[i] = r.nextDouble();
+			}
+		}
+	},
+
+	/** 1/rank^s for a Zipf distributed rank (s = 1.1 over 100000 ranks): heavily skewed with many ties near the top */
+	ZIPFIAN {
+		@Override
+		public void fill(double[] scores, Random r) {
+			int ranks = 100_000;
+			double exponent = 1.1;
+			double[] cdf = new double[ranks];
+			double sum = 0;
+			for (int rank = 1; rank <= ranks; rank++) {
+				sum += 1.0 / Math.pow(rank, exponent);
+				cdf[rank - 1] = sum;
+			}
+			for (int i = 0; i < scores.length; i++) {
+				int pos = Arrays.binarySearch(cdf, r.nextDouble() * sum);
+				int rank = (pos >= 0 ? pos : -pos - 1) + 1;
+				scores[i] = 1.0 / Math.pow(rank, exponent);
+			}
+		}
+	},
+
+	/** standard normal */
+	NORMAL {
+		@Override
+		public void fill(double[] scores, Random r) {
+			for (int i = 0; i < scores.length; i++) {
+				scores[i] = r.nextGaussian();
+			}
+		}
+	},
+
+	/** already sorted, every entry is better than the previous ones */
+	ASCENDING {
+		@Override
+		public void fill(double[] scores, Random r) {
+			for (int i = 0; i < scores.length; i++) {
+				scores[i] = (double) i / scores.length;
+			}
+		}
+	},
+
+	/** sorted in rank order, as emitted by upstream scorers */
+	DESCENDING {
+		@Override
+		public void fill(double[] scores, Random r) {
+			for (int i = 0; i < scores.length; i++) {
+				scores[i] = (double) (scores.length - i) / scores.length;
+			}
+		}
+	},
+
+	/** only 16 distinct scores, so the order is mostly decided by the index tie-break */
+	DUPLICATES {
+		@Override
+		public void fill(double[] scores, Random r) {
+			for (int i = 0; i < scores.length; i++) {
+				scores[i] = r.nextInt(16) / 16.0;
+			}
+		}
+	},
+
+	/**
+	 * Adversarial input for the middle position pivot of TopNSelect_QS.orderTheTopN (ALG.MEDIAN): the
+	 * partitioning is simulated and every pivot gets the worst remaining score, so each step removes
+	 * one entry only and the selection becomes quadratic.
+	 */
+	MEDIAN_KILLER {
+		@Override
+		public void fill(double[] scores, Random r) {
+			int n = scores.length;
+			int[] positions = new int[n];
+			for (int i = 0; i < n; i++) {
+				positions[i] = i;
+			}
+			// the pivot is the worst of [0, right]: partition only swaps it to the end of the range
+			for (int right = n - 1, value = 0; right >= 0; right--, value++) {
+				int pivotIndex = (right + 1) >>> 1;
+				scores[positions[pivotIndex]] = (double) value / n;
+				int p = positions[pivotIndex];
+				positions[pivotIndex] = positions[right];
+				positions[right] = p;
+			}
+		}
+	},
+
+	/** uniform with about 1% each of NaN, -0.0, 0.0, infinities mixed in */
+	SPECIAL_VALUES {
+		@Override
+		public void fill(double[] scores, Random r) {
+			final double[] specials = { Double.NaN, -0.0, 0.0, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY };
+			for (int i = 0; i < scores.length; i++) {
+				int x = r.nextInt(100);
+				scores[i] = x < specials.length ? specials[x] : r.nextDouble();
+			}
+		}
+	};
+
+	public abstract void fill(double[] scores, Random r);
+}
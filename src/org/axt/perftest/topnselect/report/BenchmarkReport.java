@@ -0,0 +1,165 @@
+package org.axt.perftest.topnselect.report;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The results of a benchmark run, written as JSON (for other tools) and CSV (for spreadsheets and as a baseline).
+ */
+public class BenchmarkReport {
+
+	private static final String[] CSV_COLUMNS = { "algorithm", "n", "k", "phase", "runs",
+			"timeMean", "timeStdDev", "timeMin", "timeP50", "timeP99", "timeP999", "timeMax",
+			"gcTimeMean", "gcCountMean", "garbageMean", "garbageStdDev" };
+
+	private final List<BenchmarkResult> results = new ArrayList<>();
+
+	public void add(BenchmarkResult result) {
+		results.add(result);
+	}
+
+	public void addAll(List<BenchmarkResult> results) {
+		this.results.addAll(results);
+	}
+
+	public List<BenchmarkResult> getResults() {
+		return Collections.unmodifiableList(results);
+	}
+
+	public BenchmarkResult find(String key) {
+		for (BenchmarkResult result : results) {
+			if (result.key().equals(key)) return result;
+		}
+		return null;
+	}
+
+	public void writeCsv(Path file) throws IOException {
+		try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+			out.write(String.join(",", CSV_COLUMNS));
+			out.write('\n');
+			for (BenchmarkResult r : results) {
+				out.write(String.format(Locale.ROOT, "%s,%d,%d,%s,%d,%s,%s,%s,%s,%s,%s,%s,%s,%s,%s,%s\n",
+						csv(r.algorithm), r.n, r.k, csv(r.phase), r.runs,
+						r.timeMean, r.timeStdDev, r.timeMin, r.timeP50, r.timeP99, r.timeP999, r.timeMax,
+						r.gcTimeMean, r.gcCountMean, r.garbageMean, r.garbageStdDev));
+			}
+		}
+	}
+
+	public void writeJson(Path file) throws IOException {
+		try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+			out.write("[\n");
+			for (int i = 0; i < results.size(); i++) {
+				BenchmarkResult r = results.get(i);
+				out.write(String.format(Locale.ROOT, "  {\"algorithm\": %s, \"n\": %d, \"k\": %d, \"phase\": %s, \"runs\": %d, "
+						+ "\"time\": {\"mean\": %s, \"stdDev\": %s, \"min\": %s, \"p50\": %s, \"p99\": %s, \"p999\": %s, \"max\": %s}, "
+						+ "\"gcTime\": %s, \"gcCount\": %s, \"garbage\": {\"mean\": %s, \"stdDev\": %s}}%s\n",
+						json(r.algorithm), r.n, r.k, json(r.phase), r.runs,
+						json(r.timeMean), json(r.timeStdDev), json(r.timeMin), json(r.timeP50), json(r.timeP99), json(r.timeP999), json(r.timeMax),
+						json(r.gcTimeMean), json(r.gcCountMean), json(r.garbageMean), json(r.garbageStdDev),
+						i < results.size() - 1 ? "," : ""));
+			}
+			out.write("]\n");
+		}
+	}
+
+	/**
+	 * Reads a report written by writeCsv(), eg. the baseline of a previous release.
+	 */
+	public static BenchmarkReport readCsv(Path file) throws IOException {
+		List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+		if (lines.isEmpty()) {
+			throw new IOException("empty report: " + file);
+		}
+		Map<String, Integer> column = new HashMap<>();
+		String[] header = lines.get(0).split(",");
+		for (int i = 0; i < header.length; i++) {
+			column.put(header[i].trim(), i);
+		}
+		for (String name : CSV_COLUMNS) {
+			if (!column.containsKey(name)) throw new IOException("missing column " + name + " in " + file);
+		}
+
+		BenchmarkReport report = new BenchmarkReport();
+		for (int l = 1; l < lines.size(); l++) {
+			if (lines.get(l).trim().isEmpty()) continue;
+			String[] v = splitCsv(lines.get(l));
+			try {
+				report.add(new BenchmarkResult(v[column.get("algorithm")], Integer.parseInt(v[column.get("n")]),
+						Integer.parseInt(v[column.get("k")]), v[column.get("phase")], Integer.parseInt(v[column.get("runs")]),
+						number(v, column, "timeMean"), number(v, column, "timeStdDev"), number(v, column, "timeMin"),
+						number(v, column, "timeP50"), number(v, column, "timeP99"), number(v, column, "timeP999"), number(v, column, "timeMax"),
+						number(v, column, "gcTimeMean"), number(v, column, "gcCountMean"),
+						number(v, column, "garbageMean"), number(v, column, "garbageStdDev")));
+			} catch (RuntimeException e) {
+				throw new IOException("invalid line " + (l + 1) + " in " + file + ": " + lines.get(l), e);
+			}
+		}
+		return report;
+	}
+
+	private static double number(String[] values, Map<String, Integer> column, String name) {
+		return Double.parseDouble(values[column.get(name)]);
+	}
+
+	private static String csv(String s) {
+		if (s.indexOf(',') < 0 && s.indexOf('"') < 0) return s;
+		return '"' + s.replace("\"", "\"\"") + '"';
+	}
+
+	private static String[] splitCsv(String line) {
+		List<String> values = new ArrayList<>();
+		StringBuilder value = new StringBuilder();
+		boolean quoted = false;
+		for (int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if (quoted) {
+				if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+					value.append('"');
+					i++;
+				} else if (c == '"') {
+					quoted = false;
+				} else {
+					value.append(c);
+				}
+			} else if (c == '"') {
+				quoted = true;
+			} else if (c == ',') {
+				values.add(value.toString());
+				value.setLength(0);
+			} else {
+				value.append(c);
+			}
+		}
+		values.add(value.toString());
+		return values.toArray(new String[values.size()]);
+	}
+
+	private static String json(double d) {
+		return Double.isNaN(d) || Double.isInfinite(d) ? "null" : Double.toString(d);
+	}
+
+	private static String json(String s) {
+		StringBuilder sb = new StringBuilder("\"");
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '"' || c == '\\') {
+				sb.append('\\').append(c);
+			} else if (c < 0x20) {
+				sb.append(String.format("\\u%04x", (int) c));
+			} else {
+				sb.append(c);
+			}
+		}
+		return sb.append('"').toString();
+	}
+}
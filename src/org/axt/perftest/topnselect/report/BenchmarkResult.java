@@ -0,0 +1,95 @@
+package org.axt.perftest.topnselect.report;
+
+import org.axt.perftest.util.GCMeasure.Diff;
+import org.axt.perftest.util.Statistics;
+
+/**
+ * Result of one (algorithm, n, k, phase) cell: the distribution of the phase time and the GC figures.
+ * Times are in ms, garbage in MB, like everywhere in the harness.
+ */
+public class BenchmarkResult {
+
+	/**
+	 * Collects the runs of one phase.
+	 */
+	public static class PhaseMeasure {
+		final Statistics time = new Statistics();
+		final Statistics gcTime = new Statistics();
+		final Statistics gcCount = new Statistics();
+		final Statistics garbage = new Statistics();
+
+		public void add(double timeMs, Diff diff) {
+			time.add(timeMs);
+			gcTime.add(diff.gcTime);
+			gcCount.add(diff.gcCount);
+			garbage.add(diff.garbage);
+		}
+
+		public Statistics getTime() {
+			return time;
+		}
+
+		public Statistics getGarbage() {
+			return garbage;
+		}
+
+		public BenchmarkResult toResult(String algorithm, int n, int k, String phase) {
+			return new BenchmarkResult(algorithm, n, k, phase, time.count(),
+					time.avg(), time.var(), time.min(), time.p50(), time.p99(), time.p999(), time.max(),
+					gcTime.avg(), gcCount.avg(), garbage.avg(), garbage.var());
+		}
+	}
+
+	public final String algorithm;
+	public final int n;
+	public final int k;
+	public final String phase;
+	public final int runs;
+
+	public final double timeMean;
+	public final double timeStdDev;
+	public final double timeMin;
+	public final double timeP50;
+	public final double timeP99;
+	public final double timeP999;
+	public final double timeMax;
+
+	public final double gcTimeMean;
+	public final double gcCountMean;
+	public final double garbageMean;
+	public final double garbageStdDev;
+
+	public BenchmarkResult(String algorithm, int n, int k, String phase, int runs,
+			double timeMean, double timeStdDev, double timeMin, double timeP50, double timeP99, double timeP999, double timeMax,
+			double gcTimeMean, double gcCountMean, double garbageMean, double garbageStdDev) {
+		this.algorithm = algorithm;
+		this.n = n;
+		this.k = k;
+		this.phase = phase;
+		this.runs = runs;
+		this.timeMean = timeMean;
+		this.timeStdDev = timeStdDev;
+		this.timeMin = timeMin;
+		this.timeP50 = timeP50;
+		this.timeP99 = timeP99;
+		this.timeP999 = timeP999;
+		this.timeMax = timeMax;
+		this.gcTimeMean = gcTimeMean;
+		this.gcCountMean = gcCountMean;
+		this.garbageMean = garbageMean;
+		this.garbageStdDev = garbageStdDev;
+	}
+
+	/**
+	 * @return the identity of the cell, results with the same key are compared to each other
+	 */
+	public String key() {
+		return algorithm + "/" + n + "/" + k + "/" + phase;
+	}
+
+	@Override
+	public String toString() {
+		return "BenchmarkResult [" + key() + ", runs=" + runs + ", timeMean=" + timeMean + ", timeP99=" + timeP99
+				+ ", gcTimeMean=" + gcTimeMean + ", gcCountMean=" + gcCountMean + ", garbageMean=" + garbageMean + "]";
+	}
+}
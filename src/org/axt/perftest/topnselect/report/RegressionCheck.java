@@ -0,0 +1,87 @@
+package org.axt.perftest.topnselect.report;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Compares a report to a baseline. A cell regressed if the mean time or the mean garbage grew by more than the
+ * relative tolerance and the growth is significant by Welch's t-test (t above the threshold, 3.0 is about 99.5%
+ * one-sided for the usual 50 runs). Garbage is mostly deterministic, a zero deviation on both sides makes any growth
+ * above the tolerance significant. Cells missing from either side are not compared.
+ */
+public class RegressionCheck {
+
+	public static final double DEFAULT_TOLERANCE = 0.05;
+	public static final double DEFAULT_T_THRESHOLD = 3.0;
+	/** smaller garbage differences are noise of the measurement itself */
+	public static final double GARBAGE_ABSOLUTE_TOLERANCE = 0.01;
+
+	public static class Regression {
+		public final String key;
+		public final String metric;
+		public final double baseline;
+		public final double current;
+		public final double t;
+
+		Regression(String key, String metric, double baseline, double current, double t) {
+			this.key = key;
+			this.metric = metric;
+			this.baseline = baseline;
+			this.current = current;
+			this.t = t;
+		}
+
+		@Override
+		public String toString() {
+			return String.format(Locale.ROOT, "%s %s: %.4f -> %.4f (%+.1f%%, t=%.1f)", key, metric, baseline, current,
+					baseline == 0 ? Double.POSITIVE_INFINITY : (current - baseline) / baseline * 100, t);
+		}
+	}
+
+	private final double tolerance;
+	private final double tThreshold;
+
+	public RegressionCheck() {
+		this(DEFAULT_TOLERANCE, DEFAULT_T_THRESHOLD);
+	}
+
+	public RegressionCheck(double tolerance, double tThreshold) {
+		this.tolerance = tolerance;
+		this.tThreshold = tThreshold;
+	}
+
+	public List<Regression> compare(BenchmarkReport baseline, BenchmarkReport current) {
+		List<Regression> regressions = new ArrayList<>();
+		for (BenchmarkResult c : current.getResults()) {
+			BenchmarkResult b = baseline.find(c.key());
+			if (b == null) continue;
+			check(regressions, c.key(), "time", b.timeMean, b.timeStdDev, b.runs, c.timeMean, c.timeStdDev, c.runs, 0);
+			check(regressions, c.key(), "garbage", b.garbageMean, b.garbageStdDev, b.runs, c.garbageMean, c.garbageStdDev, c.runs, GARBAGE_ABSOLUTE_TOLERANCE);
+		}
+		return regressions;
+	}
+
+	private void check(List<Regression> regressions, String key, String metric,
+			double baseMean, double baseStdDev, int baseRuns, double mean, double stdDev, int runs, double absoluteTolerance) {
+		double diff = mean - baseMean;
+		if (diff <= absoluteTolerance || diff <= baseMean * tolerance) {
+			return;
+		}
+		double t = welchT(baseMean, baseStdDev, baseRuns, mean, stdDev, runs);
+		if (t > tThreshold) {
+			regressions.add(new Regression(key, metric, baseMean, mean, t));
+		}
+	}
+
+	static double welchT(double mean1, double stdDev1, int n1, double mean2, double stdDev2, int n2) {
+		// the reports have population deviations, convert them to sample variances
+		double v1 = n1 > 1 ? stdDev1 * stdDev1 * n1 / (n1 - 1) : 0;
+		double v2 = n2 > 1 ? stdDev2 * stdDev2 * n2 / (n2 - 1) : 0;
+		double se = Math.sqrt(v1 / Math.max(1, n1) + v2 / Math.max(1, n2));
+		if (se == 0) {
+			return mean2 > mean1 ? Double.POSITIVE_INFINITY : 0;
+		}
+		return (mean2 - mean1) / se;
+	}
+}
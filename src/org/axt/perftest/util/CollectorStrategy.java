@@ -0,0 +1,137 @@
+package org.axt.perftest.util;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.MemoryPoolMXBean;
+import java.util.List;
+
+/**
+ * Tells GCMeasure which collector beans and memory pools of the running garbage collector to use.
+ * Collector names are matched exactly, pool names by case insensitive fragments, a null array matches everything.
+ * Subclass it (or use the public constructor) for a collector which is not known here.
+ */
+public class CollectorStrategy {
+
+	/** Serial, Parallel, ParNew/CMS: fixed size eden, every collector bean pauses the application */
+	public static final CollectorStrategy SERIAL_PARALLEL = new CollectorStrategy("Serial/Parallel",
+			new String[] { "Copy", "ParNew", "PS Scavenge" }, null, null,
+			new String[] { "eden" }, new String[] { "old", "tenured" }, true);
+
+	/** G1: eden is resized after every young collection; "G1 Concurrent GC" (JDK 20+) reports concurrent marking, not pauses */
+	public static final CollectorStrategy G1 = new CollectorStrategy("G1",
+			new String[] { "G1 Young Generation" }, new String[] { "G1 Young Generation", "G1 Old Generation" }, new String[] { "G1 Young Generation", "G1 Old Generation" },
+			new String[] { "g1 eden" }, new String[] { "g1 old" }, false);
+
+	/** single generation ZGC: one ZHeap pool, "ZGC Cycles" are concurrent, "ZGC Pauses" are the stop the world parts (JDK 15-16 has only "ZGC") */
+	public static final CollectorStrategy ZGC = new CollectorStrategy("ZGC",
+			null, new String[] { "ZGC Cycles", "ZGC" }, new String[] { "ZGC Pauses", "ZGC" },
+			new String[] { "zheap" }, null, false);
+
+	/** generational ZGC (JDK 21+) */
+	public static final CollectorStrategy ZGC_GENERATIONAL = new CollectorStrategy("Generational ZGC",
+			new String[] { "ZGC Minor Cycles" }, new String[] { "ZGC Minor Cycles", "ZGC Major Cycles" }, new String[] { "ZGC Minor Pauses", "ZGC Major Pauses" },
+			new String[] { "zgc young" }, new String[] { "zgc old" }, false);
+
+	/** Shenandoah: one heap pool, like single generation ZGC */
+	public static final CollectorStrategy SHENANDOAH = new CollectorStrategy("Shenandoah",
+			null, new String[] { "Shenandoah Cycles" }, new String[] { "Shenandoah Pauses" },
+			new String[] { "shenandoah" }, null, false);
+
+	private final String name;
+	private final String[] minorCollectors;
+	private final String[] countedCollectors;
+	private final String[] timedCollectors;
+	private final String[] allocationPools;
+	private final String[] oldPools;
+	private final boolean fixedAllocationPool;
+
+	/**
+	 * @param minorCollectors collectors counted as minor collections
+	 * @param countedCollectors collectors counted in Diff.gcCount, one count should mean one emptying of the allocation pool
+	 * @param timedCollectors collectors whose time is summed into Diff.gcTime
+	 * @param allocationPools the pools new objects are allocated in
+	 * @param oldPools the pools objects are promoted to, null if the collector has no generations
+	 * @param fixedAllocationPool true if the allocation pool can not be resized, then the strict eden checks of GCMeasure apply
+	 */
+	public CollectorStrategy(String name, String[] minorCollectors, String[] countedCollectors, String[] timedCollectors,
+			String[] allocationPools, String[] oldPools, boolean fixedAllocationPool) {
+		this.name = name;
+		this.minorCollectors = minorCollectors;
+		this.countedCollectors = countedCollectors;
+		this.timedCollectors = timedCollectors;
+		this.allocationPools = allocationPools;
+		this.oldPools = oldPools;
+		this.fixedAllocationPool = fixedAllocationPool;
+	}
+
+	/**
+	 * Selects the strategy by the names of the collector beans of the running JVM, SERIAL_PARALLEL if none matches.
+	 */
+	public static CollectorStrategy detect(List<GarbageCollectorMXBean> gcBeans) {
+		CollectorStrategy strategy = SERIAL_PARALLEL;
+		for (GarbageCollectorMXBean gcBean : gcBeans) {
+			String n = gcBean.getName();
+			if (n == null) continue;
+			if (n.startsWith("G1 ")) return G1;
+			if (n.startsWith("ZGC Minor") || n.startsWith("ZGC Major")) return ZGC_GENERATIONAL;
+			if (n.startsWith("ZGC")) strategy = ZGC;
+			if (n.startsWith("Shenandoah")) return SHENANDOAH;
+		}
+		return strategy;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public boolean isMinorCollector(GarbageCollectorMXBean gcBean) {
+		if (minorCollectors == null) {
+			return false;
+		}
+		return matchesName(minorCollectors, gcBean.getName());
+	}
+
+	public boolean isCountedCollector(GarbageCollectorMXBean gcBean) {
+		return countedCollectors == null || matchesName(countedCollectors, gcBean.getName());
+	}
+
+	public boolean isTimedCollector(GarbageCollectorMXBean gcBean) {
+		return timedCollectors == null || matchesName(timedCollectors, gcBean.getName());
+	}
+
+	public boolean isAllocationPool(MemoryPoolMXBean pool) {
+		return allocationPools == null || matchesFragment(allocationPools, pool.getName());
+	}
+
+	public boolean isOldPool(MemoryPoolMXBean pool) {
+		return oldPools != null && matchesFragment(oldPools, pool.getName());
+	}
+
+	public boolean hasOldPool() {
+		return oldPools != null;
+	}
+
+	public boolean hasFixedAllocationPool() {
+		return fixedAllocationPool;
+	}
+
+	private static boolean matchesName(String[] names, String n) {
+		for (String name : names) {
+			if (name.equals(n)) return true;
+		}
+		return false;
+	}
+
+	private static boolean matchesFragment(String[] fragments, String n) {
+		if (n == null) return false;
+		String lower = n.toLowerCase();
+		for (String fragment : fragments) {
+			if (lower.contains(fragment)) return true;
+		}
+		return false;
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+}
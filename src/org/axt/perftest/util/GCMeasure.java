@@ -3,40 +3,117 @@ package org.axt.perftest.util;
 import java.lang.management.GarbageCollectorMXBean;
 import java.lang.management.ManagementFactory;
 import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
 import java.lang.management.MemoryUsage;
 import java.lang.management.RuntimeMXBean;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+
+import com.sun.management.GcInfo;
 
 /**
  * Used to measure the generated garbage between two calls.
- * It works only if there are no other threads generating garbage.
- * It works well only if you are using -XX:-UseTLAB, but you don't want to use that option in production (only in a test environment)
+ * With the EDEN backend it works only if there are no other threads generating garbage, and it works well only 
+ * if you are using -XX:-UseTLAB, but you don't want to use that option in production (only in a test environment).
+ * The THREAD_ALLOCATION backend reports the bytes allocated by the thread which called clear(), with any JVM flags
+ * and any number of other allocating threads.
+ * The collector beans and memory pools are selected by a CollectorStrategy. Only Serial and Parallel have a fixed size
+ * eden, for the other collectors the EDEN backend estimates the garbage from the usage before/after the last collection.
  */
 public class GCMeasure {
 
-	private final List<GarbageCollectorMXBean> gcAllMXBeans;
+	public enum Backend {
+		/** garbage inferred from eden occupancy and GC counts, see checkTLAB() */
+		EDEN,
+		/** exact allocated bytes of the measured thread (com.sun.management.ThreadMXBean) */
+		THREAD_ALLOCATION,
+		/** THREAD_ALLOCATION if the JVM supports it, EDEN otherwise */
+		AUTO
+	}
+
+	private final CollectorStrategy strategy;
+	private final List<GarbageCollectorMXBean> gcTimedMXBeans;
+	private final List<GarbageCollectorMXBean> gcCountedMXBeans;
 	private final List<GarbageCollectorMXBean> gcMinorCollectorMXBeans;
+	private final List<MemoryPoolMXBean> allocationPools;
+	private final List<MemoryPoolMXBean> oldPools;
+	private final Backend backend;
+	private final com.sun.management.ThreadMXBean threadBean;
+	// bytes allocated by taking a measurement point itself, subtracted from every diff
+	private final long threadAllocationOverhead;
 
 	public GCMeasure() {
-		gcAllMXBeans = ManagementFactory.getGarbageCollectorMXBeans();
-		gcMinorCollectorMXBeans = getMinorCollectorBeans(gcAllMXBeans);
-		clear();
+		this(Backend.AUTO);
 	}
-	
-	private static boolean isMinorCollector(GarbageCollectorMXBean gcBean) {
-		String n = gcBean.getName();
-		return "Copy".equals(n) || "ParNew".equals(n) || "PS Scavenge".equals(n) || (n != null && n.toLowerCase().contains("young"));
+
+	public GCMeasure(Backend backend) {
+		this(backend, CollectorStrategy.detect(ManagementFactory.getGarbageCollectorMXBeans()));
 	}
 
-	private List<GarbageCollectorMXBean> getMinorCollectorBeans(List<GarbageCollectorMXBean> gcAllMXBeans) {
-		List<GarbageCollectorMXBean> gcMinorCollectorMXBeans = new ArrayList<>(); 
-		for(GarbageCollectorMXBean mxbean : gcAllMXBeans) {
-			if (isMinorCollector(mxbean)) {
-				gcMinorCollectorMXBeans.add(mxbean);
+	public GCMeasure(Backend backend, CollectorStrategy strategy) {
+		this.strategy = strategy;
+		List<GarbageCollectorMXBean> gcAllMXBeans = ManagementFactory.getGarbageCollectorMXBeans();
+		gcTimedMXBeans = new ArrayList<>();
+		gcCountedMXBeans = new ArrayList<>();
+		gcMinorCollectorMXBeans = new ArrayList<>();
+		for (GarbageCollectorMXBean gcBean : gcAllMXBeans) {
+			if (strategy.isTimedCollector(gcBean)) gcTimedMXBeans.add(gcBean);
+			if (strategy.isCountedCollector(gcBean)) gcCountedMXBeans.add(gcBean);
+			if (strategy.isMinorCollector(gcBean)) gcMinorCollectorMXBeans.add(gcBean);
+		}
+		allocationPools = new ArrayList<>();
+		oldPools = new ArrayList<>();
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() != MemoryType.HEAP) continue;
+			if (strategy.isAllocationPool(pool)) allocationPools.add(pool);
+			if (strategy.isOldPool(pool)) oldPools.add(pool);
+		}
+
+		threadBean = backend == Backend.EDEN ? null : getThreadAllocationBean();
+		if (threadBean == null && backend == Backend.THREAD_ALLOCATION) {
+			throw new IllegalStateException("thread allocated memory measurement is not supported by this JVM");
+		}
+		this.backend = threadBean != null ? Backend.THREAD_ALLOCATION : Backend.EDEN;
+		threadAllocationOverhead = threadBean != null ? measureThreadAllocationOverhead() : 0;
+		clear();
+	}
+
+	private static com.sun.management.ThreadMXBean getThreadAllocationBean() {
+		try {
+			java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+			if (bean instanceof com.sun.management.ThreadMXBean) {
+				com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+				if (threadBean.isThreadAllocatedMemorySupported()) {
+					if (!threadBean.isThreadAllocatedMemoryEnabled()) {
+						threadBean.setThreadAllocatedMemoryEnabled(true);
+					}
+					return threadBean;
+				}
 			}
+		} catch (LinkageError | UnsupportedOperationException e) {
+			// not a HotSpot-like JVM, fall back to the eden method
+		}
+		return null;
+	}
+
+	private long measureThreadAllocationOverhead() {
+		long id = Thread.currentThread().getId();
+		long min = Long.MAX_VALUE;
+		for (int i = 0; i < 100; i++) {
+			Point p1 = new Point(id);
+			Point p2 = new Point(id);
+			min = Math.min(min, p2.threadAllocatedBytes - p1.threadAllocatedBytes);
 		}
-		return gcMinorCollectorMXBeans;
+		return min;
+	}
+
+	public Backend getBackend() {
+		return backend;
+	}
+
+	public CollectorStrategy getCollectorStrategy() {
+		return strategy;
 	}
 
 	/**
@@ -47,12 +124,17 @@ public class GCMeasure {
 		public final long gcCount;
 		public final double garbage;
 
-		private Diff(Point p1, Point p2) {
+		private Diff(Point p1, Point p2, long threadAllocationOverhead, CollectorStrategy strategy) {
 			this.gcCount = p2.gcCount - p1.gcCount;
 			this.gcTime = p2.gcTime - p1.gcTime;
 
+			if (p1.threadAllocatedBytes >= 0) {
+				// exact allocation of the thread, there is nothing to check about the heap
+				this.garbage = Math.max(0, p2.threadAllocatedBytes - p1.threadAllocatedBytes - threadAllocationOverhead) / 1024.0 / 1024.0;
+			} else if (!strategy.hasFixedAllocationPool()) {
+				this.garbage = estimateResizedGarbage(p1, p2, gcCount) / 1024.0 / 1024.0;
 			// sanity checks
-			if (p2.edenSpaceCommittedSize == 0) {
+			} else if (p2.edenSpaceCommittedSize == 0) {
 				throw new IllegalStateException("problem: size of eden space is zero!");
 			} else if (p1.oldSpaceCommittedSize != p2.oldSpaceCommittedSize || Math.abs(p1.oldSpaceUsedSize - p2.oldSpaceUsedSize) > 10_000) {
 				throw new IllegalStateException("problem: size of old space was changed " + p1 + " " + p2);
@@ -73,6 +155,22 @@ public class GCMeasure {
 				throw new IllegalStateException("problem: calculated garbage is negative, internal error");
 			}
 		}
+
+		/**
+		 * Eden (or the whole heap) is resized by the collector, so the committed size says nothing about the collections in between.
+		 * The last collection tells how much was collected: the allocation before the first collection and after the last one is 
+		 * measured, every collection in between is assumed to be like the last one. Exact with zero or one collection.
+		 * Concurrent collectors keep allocating while collecting, so it is an approximation for ZGC and Shenandoah.
+		 */
+		private static long estimateResizedGarbage(Point p1, Point p2, long gcCount) {
+			if (gcCount <= 0 || p2.lastGcUsedBefore < 0) {
+				return Math.max(0, p2.edenSpaceUsedSize - p1.edenSpaceUsedSize);
+			}
+			long beforeFirst = Math.max(0, p2.lastGcUsedBefore - p1.edenSpaceUsedSize);
+			long collected = Math.max(0, p2.lastGcUsedBefore - p2.lastGcUsedAfter);
+			long afterLast = Math.max(0, p2.edenSpaceUsedSize - p2.lastGcUsedAfter);
+			return beforeFirst + (gcCount - 1) * collected + afterLast;
+		}
 	}
 
 	/**
@@ -86,15 +184,34 @@ public class GCMeasure {
 		final long edenSpaceUsedSize;
 		final long oldSpaceCommittedSize;
 		final long oldSpaceUsedSize;
+		// -1 for the EDEN backend
+		final long threadId;
+		final long threadAllocatedBytes;
+		// usage of the allocation pools around the last collection, -1 if unknown
+		final long lastGcUsedBefore;
+		final long lastGcUsedAfter;
 	
-		Point() {
+		Point(long threadId) {
 			gcTime = getGcTime();
 			minorGcCount = getMinorGCCount();
 			gcCount = getGCCount();
-			edenSpaceCommittedSize = getEdenSpaceCommittedSize();
-			edenSpaceUsedSize = getEdenSpaceUsedSize();
-			oldSpaceCommittedSize = getOldSpaceCommittedSize();
-			oldSpaceUsedSize = getOldSpaceUsedSize();
+			if (threadBean != null) {
+				// the memory pools are not queried, that would allocate on the measured thread
+				edenSpaceCommittedSize = edenSpaceUsedSize = oldSpaceCommittedSize = oldSpaceUsedSize = -1;
+				lastGcUsedBefore = lastGcUsedAfter = -1;
+				this.threadId = threadId;
+				threadAllocatedBytes = threadBean.getThreadAllocatedBytes(threadId);
+			} else {
+				edenSpaceCommittedSize = getEdenSpaceCommittedSize();
+				edenSpaceUsedSize = getEdenSpaceUsedSize();
+				oldSpaceCommittedSize = getOldSpaceCommittedSize();
+				oldSpaceUsedSize = getOldSpaceUsedSize();
+				long[] lastGc = getLastGcUsage();
+				lastGcUsedBefore = lastGc[0];
+				lastGcUsedAfter = lastGc[1];
+				this.threadId = -1;
+				threadAllocatedBytes = -1;
+			}
 		}
 
 		@Override
@@ -104,12 +221,15 @@ public class GCMeasure {
 					+ edenSpaceCommittedSize + ", edenSpaceUsedSize="
 					+ edenSpaceUsedSize + ", oldSpaceCommittedSize="
 					+ oldSpaceCommittedSize + ", oldSpaceUsedSize="
-					+ oldSpaceUsedSize + "]";
+					+ oldSpaceUsedSize + ", threadId=" + threadId
+					+ ", threadAllocatedBytes=" + threadAllocatedBytes
+					+ ", lastGcUsedBefore=" + lastGcUsedBefore
+					+ ", lastGcUsedAfter=" + lastGcUsedAfter + "]";
 		}
 
 		private long getGcTime() {
 			long sum = 0;
-			for (GarbageCollectorMXBean gcMBean : gcAllMXBeans) {
+			for (GarbageCollectorMXBean gcMBean : gcTimedMXBeans) {
 				sum += gcMBean.getCollectionTime();
 			}
 			return sum;
@@ -125,59 +245,77 @@ public class GCMeasure {
 
 		private long getGCCount() {
 			long sum = 0;
-			for (GarbageCollectorMXBean gcBean : gcAllMXBeans) {
+			for (GarbageCollectorMXBean gcBean : gcCountedMXBeans) {
 				sum += gcBean.getCollectionCount();
 			}
 			return sum;
 		}
 
 
-		boolean isEden(MemoryPoolMXBean mpb) {
-			return mpb != null && mpb.getName() != null && mpb.getName().toLowerCase().contains("eden");
-		}
-
-		boolean isOld(MemoryPoolMXBean mpb) {
-			return mpb != null && mpb.getName() != null && mpb.getName().toLowerCase().contains("old");
-		}
-
 		public long getEdenSpaceCommittedSize() {
 			long sumCommitted = 0;
-			List<MemoryPoolMXBean> mpbs = ManagementFactory.getMemoryPoolMXBeans();
-			for (MemoryPoolMXBean mpb : mpbs) {
+			for (MemoryPoolMXBean mpb : allocationPools) {
 				MemoryUsage mu = mpb.getCollectionUsage(); // memory usage after the last collection // can throw exception, see above
-				if (isEden(mpb) && mu != null) sumCommitted += mu.getCommitted();
+				if (mu != null) sumCommitted += mu.getCommitted();
 			}
 			return sumCommitted;
 		}
 		public long getEdenSpaceUsedSize() {
 			long sumUsed = 0;
-			List<MemoryPoolMXBean> mpbs = ManagementFactory.getMemoryPoolMXBeans();
-			for (MemoryPoolMXBean mpb : mpbs) {
+			for (MemoryPoolMXBean mpb : allocationPools) {
 				MemoryUsage mu = mpb.getUsage();
-				if (isEden(mpb) && mu != null) sumUsed += mu.getUsed();
+				if (mu != null) sumUsed += mu.getUsed();
 			}
 			return sumUsed;
 		}
 
 		public long getOldSpaceCommittedSize() {
 			long sumCommitted = 0;
-			List<MemoryPoolMXBean> mpbs = ManagementFactory.getMemoryPoolMXBeans();
-			for (MemoryPoolMXBean mpb : mpbs) {
+			for (MemoryPoolMXBean mpb : oldPools) {
 				MemoryUsage mu = mpb.getCollectionUsage(); // memory usage after the last collection // can throw exception, see above
-				if (isOld(mpb) && mu != null) sumCommitted += mu.getCommitted();
+				if (mu != null) sumCommitted += mu.getCommitted();
 			}
 			return sumCommitted;
 		}
 		public long getOldSpaceUsedSize() {
 			long sumUsed = 0;
-			List<MemoryPoolMXBean> mpbs = ManagementFactory.getMemoryPoolMXBeans();
-			for (MemoryPoolMXBean mpb : mpbs) {
+			for (MemoryPoolMXBean mpb : oldPools) {
 				MemoryUsage mu = mpb.getUsage(); // memory usage after the last collection // can throw exception, see above
-				if (isOld(mpb) && mu != null) sumUsed += mu.getUsed();
+				if (mu != null) sumUsed += mu.getUsed();
 			}
 			return sumUsed;
 		}
 
+		/**
+		 * @return used size of the allocation pools before and after the most recent counted collection, {-1, -1} if unknown
+		 */
+		private long[] getLastGcUsage() {
+			long[] usage = { -1, -1 };
+			long lastEnd = -1;
+			try {
+				for (GarbageCollectorMXBean gcBean : gcCountedMXBeans) {
+					if (!(gcBean instanceof com.sun.management.GarbageCollectorMXBean)) continue;
+					GcInfo info = ((com.sun.management.GarbageCollectorMXBean) gcBean).getLastGcInfo();
+					if (info == null || info.getEndTime() < lastEnd) continue;
+					lastEnd = info.getEndTime();
+					usage[0] = sumUsed(info.getMemoryUsageBeforeGc());
+					usage[1] = sumUsed(info.getMemoryUsageAfterGc());
+				}
+			} catch (LinkageError e) {
+				// no com.sun.management, stay with unknown
+			}
+			return usage;
+		}
+
+		private long sumUsed(Map<String, MemoryUsage> usageByPool) {
+			long sum = 0;
+			for (MemoryPoolMXBean mpb : allocationPools) {
+				MemoryUsage mu = usageByPool.get(mpb.getName());
+				if (mu != null) sum += mu.getUsed();
+			}
+			return sum;
+		}
+
 	}
 	
 	Point lastPoint;
@@ -193,13 +331,16 @@ public class GCMeasure {
 		return false;
 	}
 	
+	/**
+	 * Starts a new measurement. With the THREAD_ALLOCATION backend the current thread is measured by the following getDiff() calls.
+	 */
 	public void clear() {
-		lastPoint = new Point();
+		lastPoint = new Point(Thread.currentThread().getId());
 	}
 
 	public Diff getDiff() {
 		Point pold = lastPoint;
-		lastPoint = new Point();
-		return new Diff(pold, lastPoint);
+		lastPoint = new Point(pold.threadId);
+		return new Diff(pold, lastPoint, threadAllocationOverhead, strategy);
 	}
 }
@@ -0,0 +1,358 @@
+package org.axt.perftest.util;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import com.sun.management.GcInfo;
+
+/**
+ * Continuous allocation rate, promotion rate and pause time tracking from the GC notifications of the JVM.
+ * Unlike GCMeasure it needs no JVM flags and does not care about other threads, so it can stay on in production.
+ * The last capacity collections are kept in a ring buffer of primitive arrays, the memory used does not grow.
+ * Allocation is the growth of the allocation pools between two collections (the first one since start()),
+ * promotion is the growth of the old pools during a collection, both are accounted when the collection happens.
+ * Only the collectors timed by the CollectorStrategy count as pauses, the concurrent ones (G1 Concurrent GC,
+ * the ZGC and Shenandoah Cycles) are reported separately.
+ */
+public class GCMonitor implements AutoCloseable {
+
+	public static final int DEFAULT_CAPACITY = 1024;
+
+	private final CollectorStrategy strategy;
+	private final List<NotificationEmitter> emitters = new ArrayList<>();
+	private final List<String> collectorNames = new ArrayList<>();
+	private final List<String> countedCollectorNames = new ArrayList<>();
+	private final List<String> timedCollectorNames = new ArrayList<>();
+	private final List<MemoryPoolMXBean> allocationPools = new ArrayList<>();
+	private final List<String> allocationPoolNames = new ArrayList<>();
+	private final List<String> oldPoolNames = new ArrayList<>();
+
+	// ring buffer, one entry per collection
+	private final long[] startTimes;
+	private final long[] durations;
+	private final long[] allocated;
+	private final long[] promoted;
+	private final int[] collectors;
+	private int head;
+	private int count;
+	private long totalCount;
+
+	private final long monitorStart;
+	private long lastUsedAfter = -1;
+
+	private final NotificationListener listener = new NotificationListener() {
+		@Override
+		public void handleNotification(Notification notification, Object handback) {
+			if (GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+				record(GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData()));
+			}
+		}
+	};
+
+	public GCMonitor() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	public GCMonitor(int capacity) {
+		this(capacity, CollectorStrategy.detect(ManagementFactory.getGarbageCollectorMXBeans()));
+	}
+
+	public GCMonitor(int capacity, CollectorStrategy strategy) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("capacity must be positive: " + capacity);
+		}
+		this.strategy = strategy;
+		startTimes = new long[capacity];
+		durations = new long[capacity];
+		allocated = new long[capacity];
+		promoted = new long[capacity];
+		collectors = new int[capacity];
+		for (GarbageCollectorMXBean gcBean : ManagementFactory.getGarbageCollectorMXBeans()) {
+			if (strategy.isCountedCollector(gcBean)) countedCollectorNames.add(gcBean.getName());
+			if (strategy.isTimedCollector(gcBean)) timedCollectorNames.add(gcBean.getName());
+		}
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() != MemoryType.HEAP) continue;
+			if (strategy.isAllocationPool(pool)) {
+				allocationPoolNames.add(pool.getName());
+				allocationPools.add(pool);
+			}
+			if (strategy.isOldPool(pool)) oldPoolNames.add(pool.getName());
+		}
+		monitorStart = ManagementFactory.getRuntimeMXBean().getUptime();
+	}
+
+	/**
+	 * Registers the listener on every collector bean. Collections before start() are not seen.
+	 */
+	public synchronized GCMonitor start() {
+		if (!emitters.isEmpty()) {
+			throw new IllegalStateException("already started");
+		}
+		// the allocation up to the first collection is measured from here
+		long used = 0;
+		for (MemoryPoolMXBean pool : allocationPools) {
+			used += pool.getUsage().getUsed();
+		}
+		lastUsedAfter = used;
+		for (GarbageCollectorMXBean gcBean : ManagementFactory.getGarbageCollectorMXBeans()) {
+			if (gcBean instanceof NotificationEmitter) {
+				NotificationEmitter emitter = (NotificationEmitter) gcBean;
+				emitter.addNotificationListener(listener, null, null);
+				emitters.add(emitter);
+			}
+		}
+		return this;
+	}
+
+	@Override
+	public synchronized void close() {
+		for (NotificationEmitter emitter : emitters) {
+			try {
+				emitter.removeNotificationListener(listener);
+			} catch (ListenerNotFoundException e) {
+				// already removed
+			}
+		}
+		emitters.clear();
+	}
+
+	public CollectorStrategy getCollectorStrategy() {
+		return strategy;
+	}
+
+	private synchronized void record(GarbageCollectionNotificationInfo info) {
+		GcInfo gcInfo = info.getGcInfo();
+		Map<String, MemoryUsage> before = gcInfo.getMemoryUsageBeforeGc();
+		Map<String, MemoryUsage> after = gcInfo.getMemoryUsageAfterGc();
+
+		int collector = collectorNames.indexOf(info.getGcName());
+		if (collector < 0) {
+			collector = collectorNames.size();
+			collectorNames.add(info.getGcName());
+		}
+
+		// ZGC and Shenandoah report every collection twice (cycle and pauses), the allocation is accounted only once
+		long allocatedBytes = 0;
+		if (countedCollectorNames.contains(info.getGcName())) {
+			long usedBefore = sumUsed(allocationPoolNames, before);
+			if (lastUsedAfter >= 0) {
+				allocatedBytes = Math.max(0, usedBefore - lastUsedAfter);
+			}
+			lastUsedAfter = sumUsed(allocationPoolNames, after);
+		}
+		long promotedBytes = Math.max(0, sumUsed(oldPoolNames, after) - sumUsed(oldPoolNames, before));
+
+		int i = (head + count) % startTimes.length;
+		if (count == startTimes.length) {
+			head = (head + 1) % startTimes.length;
+		} else {
+			count++;
+		}
+		startTimes[i] = gcInfo.getStartTime();
+		durations[i] = gcInfo.getDuration();
+		allocated[i] = allocatedBytes;
+		promoted[i] = promotedBytes;
+		collectors[i] = collector;
+		totalCount++;
+	}
+
+	private static long sumUsed(List<String> pools, Map<String, MemoryUsage> usageByPool) {
+		long sum = 0;
+		for (String pool : pools) {
+			MemoryUsage mu = usageByPool.get(pool);
+			if (mu != null) sum += mu.getUsed();
+		}
+		return sum;
+	}
+
+	/**
+	 * @return every retained collection
+	 */
+	public Snapshot snapshot() {
+		return snapshot(Long.MAX_VALUE);
+	}
+
+	/**
+	 * @return the collections started in the last windowMillis milliseconds (as far as they are retained),
+	 * aggregated and one by one as time series
+	 */
+	public synchronized Snapshot snapshot(long windowMillis) {
+		long now = ManagementFactory.getRuntimeMXBean().getUptime();
+		long from = windowMillis >= now ? 0 : now - windowMillis;
+		if (count == startTimes.length) {
+			// older collections were overwritten
+			from = Math.max(from, startTimes[head]);
+		} else {
+			from = Math.max(from, monitorStart);
+		}
+
+		int size = collectorNames.size();
+		long[] pauseCount = new long[size];
+		long[] pauseTime = new long[size];
+		long[] pauseMax = new long[size];
+		long allocatedBytes = 0, promotedBytes = 0;
+		int collections = 0;
+		List<Collection> series = new ArrayList<>();
+		for (int k = 0; k < count; k++) {
+			int i = (head + k) % startTimes.length;
+			if (startTimes[i] < from) continue;
+			String name = collectorNames.get(collectors[i]);
+			series.add(new Collection(name, timedCollectorNames.contains(name), startTimes[i], durations[i], allocated[i], promoted[i]));
+			allocatedBytes += allocated[i];
+			promotedBytes += promoted[i];
+			pauseCount[collectors[i]]++;
+			pauseTime[collectors[i]] += durations[i];
+			pauseMax[collectors[i]] = Math.max(pauseMax[collectors[i]], durations[i]);
+			collections++;
+		}
+
+		Map<String, Pauses> pauses = new LinkedHashMap<>();
+		Map<String, Pauses> concurrent = new LinkedHashMap<>();
+		for (int c = 0; c < size; c++) {
+			String name = collectorNames.get(c);
+			(timedCollectorNames.contains(name) ? pauses : concurrent).put(name, new Pauses(pauseCount[c], pauseTime[c], pauseMax[c]));
+		}
+		return new Snapshot(from, now, collections, totalCount, allocatedBytes, promotedBytes, pauses, concurrent, series);
+	}
+
+	/**
+	 * One collection of the time series.
+	 */
+	public static class Collection {
+		public final String collector;
+		/** false for the concurrent collectors, their duration is not a pause */
+		public final boolean pause;
+		/** JVM uptime */
+		public final long startMillis;
+		public final long durationMillis;
+		/** allocated since the previous collection, 0 for the collectors which are not counted (e.g. ZGC Pauses) */
+		public final long allocatedBytes;
+		public final long promotedBytes;
+
+		Collection(String collector, boolean pause, long startMillis, long durationMillis, long allocatedBytes, long promotedBytes) {
+			this.collector = collector;
+			this.pause = pause;
+			this.startMillis = startMillis;
+			this.durationMillis = durationMillis;
+			this.allocatedBytes = allocatedBytes;
+			this.promotedBytes = promotedBytes;
+		}
+
+		@Override
+		public String toString() {
+			return "Collection [" + collector + " at " + startMillis + "ms, " + durationMillis + "ms" + (pause ? "" : " concurrent")
+					+ ", allocated=" + allocatedBytes + ", promoted=" + promotedBytes + "]";
+		}
+	}
+
+	/**
+	 * Collection count and time of one collector, a pause or concurrent time depending on where it is reported.
+	 */
+	public static class Pauses {
+		public final long count;
+		public final long totalMillis;
+		public final long maxMillis;
+
+		Pauses(long count, long totalMillis, long maxMillis) {
+			this.count = count;
+			this.totalMillis = totalMillis;
+			this.maxMillis = maxMillis;
+		}
+
+		@Override
+		public String toString() {
+			return "Pauses [count=" + count + ", totalMillis=" + totalMillis + ", maxMillis=" + maxMillis + "]";
+		}
+	}
+
+	/**
+	 * Immutable view of the collections between fromMillis and toMillis (JVM uptime).
+	 */
+	public static class Snapshot {
+		public final long fromMillis;
+		public final long toMillis;
+		public final int collections;
+		/** collections seen since start(), including the ones dropped from the ring buffer */
+		public final long totalCollections;
+		public final long allocatedBytes;
+		public final long promotedBytes;
+		private final Map<String, Pauses> pauses;
+		private final Map<String, Pauses> concurrent;
+		private final List<Collection> series;
+
+		Snapshot(long fromMillis, long toMillis, int collections, long totalCollections, long allocatedBytes, long promotedBytes,
+				Map<String, Pauses> pauses, Map<String, Pauses> concurrent, List<Collection> series) {
+			this.fromMillis = fromMillis;
+			this.toMillis = toMillis;
+			this.collections = collections;
+			this.totalCollections = totalCollections;
+			this.allocatedBytes = allocatedBytes;
+			this.promotedBytes = promotedBytes;
+			this.pauses = Collections.unmodifiableMap(pauses);
+			this.concurrent = Collections.unmodifiableMap(concurrent);
+			this.series = Collections.unmodifiableList(series);
+		}
+
+		/**
+		 * @return allocation rate in MB/s
+		 */
+		public double getAllocationRate() {
+			return perSecond(allocatedBytes) / 1024.0 / 1024.0;
+		}
+
+		/**
+		 * @return promotion rate in MB/s
+		 */
+		public double getPromotionRate() {
+			return perSecond(promotedBytes) / 1024.0 / 1024.0;
+		}
+
+		private double perSecond(long bytes) {
+			long elapsed = toMillis - fromMillis;
+			return elapsed <= 0 ? 0 : bytes * 1000.0 / elapsed;
+		}
+
+		/**
+		 * @return the stop the world collectors
+		 */
+		public Map<String, Pauses> getPauses() {
+			return pauses;
+		}
+
+		/**
+		 * @return the collectors running concurrently with the application (G1 Concurrent GC, ZGC and Shenandoah Cycles)
+		 */
+		public Map<String, Pauses> getConcurrent() {
+			return concurrent;
+		}
+
+		/**
+		 * @return the collections of the window in the order they happened, for rolling allocation, promotion and pause series
+		 */
+		public List<Collection> getCollections() {
+			return series;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("Snapshot [%d-%dms, collections=%d, allocation=%.2fMB/s, promotion=%.2fMB/s, pauses=%s, concurrent=%s]",
+					fromMillis, toMillis, collections, getAllocationRate(), getPromotionRate(), pauses, concurrent);
+		}
+	}
+}
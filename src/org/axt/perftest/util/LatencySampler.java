@@ -0,0 +1,114 @@
+package org.axt.perftest.util;
+
+/**
+ * Times every sampleEvery-th batch of a hot loop into preallocated arrays, so the loop is not perturbed by
+ * System.nanoTime() on every element and nothing is allocated while measuring. The batches which are not sampled
+ * run the same loop without timing. Samples after the capacity is reached are dropped (and counted).
+ */
+public class LatencySampler {
+
+	private final int batchSize;
+	private final int sampleEvery;
+	private final long[] nanos;
+	private final int[] elements;
+	private final long[] positions;
+	private int size;
+	private long dropped;
+	private int countdown;
+
+	public LatencySampler(int batchSize, int sampleEvery, int capacity) {
+		if (batchSize <= 0 || sampleEvery <= 0 || capacity <= 0) {
+			throw new IllegalArgumentException("batchSize, sampleEvery and capacity must be positive");
+		}
+		this.batchSize = batchSize;
+		this.sampleEvery = sampleEvery;
+		nanos = new long[capacity];
+		elements = new int[capacity];
+		positions = new long[capacity];
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	/**
+	 * @return true if the next batch should be timed
+	 */
+	public boolean sampleNext() {
+		if (--countdown > 0) {
+			return false;
+		}
+		countdown = sampleEvery;
+		return true;
+	}
+
+	/**
+	 * @param position where the batch started in the input, to find the outliers later (eg. a compaction)
+	 * @param count number of elements in the batch
+	 */
+	public void record(long position, int count, long elapsedNanos) {
+		if (size == nanos.length) {
+			dropped++;
+			return;
+		}
+		positions[size] = position;
+		elements[size] = count;
+		nanos[size] = elapsedNanos;
+		size++;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public long getDropped() {
+		return dropped;
+	}
+
+	public void clear() {
+		size = 0;
+		dropped = 0;
+		countdown = 0;
+	}
+
+	/**
+	 * @return ns per element of the sampled batches
+	 */
+	public Statistics perElement() {
+		Statistics stat = new Statistics();
+		for (int i = 0; i < size; i++) {
+			stat.add((double) nanos[i] / elements[i]);
+		}
+		return stat;
+	}
+
+	/**
+	 * @return indexes of the slowest samples, slowest first
+	 */
+	public int[] slowest(int limit) {
+		int[] top = new int[Math.min(limit, size)];
+		int found = 0;
+		for (int i = 0; i < size; i++) {
+			// insertion into the short sorted array
+			int j = found < top.length ? found++ : top.length;
+			while (j > 0 && nanos[top[j - 1]] < nanos[i]) {
+				if (j < top.length) top[j] = top[j - 1];
+				j--;
+			}
+			if (j < top.length) top[j] = i;
+		}
+		return top;
+	}
+
+	public long getNanos(int sample) {
+		return nanos[sample];
+	}
+
+	public long getPosition(int sample) {
+		return positions[sample];
+	}
+
+	public int getElements(int sample) {
+		return elements[sample];
+	}
+}
@@ -0,0 +1,42 @@
+package org.axt.perftest.util;
+
+import java.io.IOException;
+import java.io.PrintStream;
+
+/**
+ * Attributes allocations to the phases of a measurement. The JFR based implementation (jfr module, built for Java 11)
+ * is loaded reflectively, so this project still compiles and runs on Java 8 without it.
+ */
+public interface PhaseProfiler extends AutoCloseable {
+
+	String JFR_IMPLEMENTATION = "org.axt.perftest.util.jfr.AllocationProfiler";
+
+	/**
+	 * Starts a phase on the current thread, the phases of a thread must not overlap.
+	 */
+	void beginPhase(String name);
+
+	void endPhase();
+
+	/**
+	 * Stops the profiling and prints the top allocation sites and types of every phase.
+	 */
+	void printReport(PrintStream out, int limit) throws IOException;
+
+	@Override
+	void close();
+
+	/**
+	 * @return a started JFR based profiler
+	 * @throws IllegalStateException if the jfr module is not on the classpath or the JVM has no JFR
+	 */
+	static PhaseProfiler startJfr() {
+		try {
+			return (PhaseProfiler) Class.forName(JFR_IMPLEMENTATION).getMethod("startProfiler").invoke(null);
+		} catch (ClassNotFoundException | LinkageError e) {
+			throw new IllegalStateException("allocation profiling needs the jfr module on the classpath and a JVM with JFR (Java 11+)", e);
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("can not start " + JFR_IMPLEMENTATION, e);
+		}
+	}
+}
@@ -8,17 +8,32 @@ package org.axt.perftest.util;
  * <li>minimum</li>
  * <li>maximum</li>
  * <li>count</li>
+ * <li>percentiles</li>
  * </ul>
- * 
+ * Average and deviation are computed with Welford's method. Percentiles come from a log-bucketed (HDR-style) histogram:
+ * the buckets are the exponent and the top SUB_BUCKET_BITS mantissa bits of the value, so the relative error is below
+ * 2^-SUB_BUCKET_BITS between MIN_VALUE and MAX_VALUE, values outside are clamped to the first/last bucket.
+ * The histogram is allocated in the constructor, add() does not allocate. Instances of different threads can be merged.
+ *
  * @author axt
  */
 public class Statistics {
 
-	private double sumx = 0.0;
-	private double sumxx = 0.0;
+	private static final int SUB_BUCKET_BITS = 6;
+	private static final int MIN_EXPONENT = -24;
+	private static final int MAX_EXPONENT = 40;
+	public static final double MIN_VALUE = Math.scalb(1.0, MIN_EXPONENT);
+	public static final double MAX_VALUE = Math.scalb(1.0, MAX_EXPONENT);
+	// bucket 0 holds zero, the negative and the too small values, the last one the too large values
+	private static final int BUCKET_COUNT = ((MAX_EXPONENT - MIN_EXPONENT) << SUB_BUCKET_BITS) + 2;
+	private static final long MIN_VALUE_BITS = Double.doubleToRawLongBits(MIN_VALUE);
+
+	private double mean = 0.0;
+	private double m2 = 0.0;
 	private double minx = 0.0;
 	private double maxx = 0.0;
 	private int n;
+	private final long[] buckets = new long[BUCKET_COUNT];
 
 	public Statistics() {}
 
@@ -26,19 +41,55 @@ public class Statistics {
 		if (n == 0) {
 			maxx = minx = v;
 		}
-		
+
 		n++;
-		sumx += v;
-		sumxx += v*v;
-		
+		double delta = v - mean;
+		mean += delta / n;
+		m2 += delta * (v - mean);
+
  		if (minx > v) minx = v;
  		if (maxx < v) maxx = v;
+
+ 		buckets[bucketOf(v)]++;
+	}
+
+	private static int bucketOf(double v) {
+		if (!(v >= MIN_VALUE)) return 0; // NaN too
+		if (v >= MAX_VALUE) return BUCKET_COUNT - 1;
+		// for positive doubles the bits are monotonic, exponent and mantissa bits together are the log scale index
+		return (int) ((Double.doubleToRawLongBits(v) - MIN_VALUE_BITS) >>> (52 - SUB_BUCKET_BITS)) + 1;
+	}
+
+	private static double bucketLowerBound(int bucket) {
+		return Double.longBitsToDouble(MIN_VALUE_BITS + ((long) (bucket - 1) << (52 - SUB_BUCKET_BITS)));
 	}
-	
+
+	/**
+	 * Adds the values of the other instance, as if they were added to this one.
+	 */
+	public void merge(Statistics other) {
+		if (other.n == 0) return;
+		if (n == 0) {
+			minx = other.minx;
+			maxx = other.maxx;
+		} else {
+			if (minx > other.minx) minx = other.minx;
+			if (maxx < other.maxx) maxx = other.maxx;
+		}
+		long count = (long) n + other.n;
+		double delta = other.mean - mean;
+		mean += delta * other.n / count;
+		m2 += other.m2 + delta * delta * ((double) n * other.n / count);
+		n = (int) count;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			buckets[i] += other.buckets[i];
+		}
+	}
+
 	private void checkState() {
 		if (n == 0) throw new IllegalStateException("n == 0");
 	}
-	
+
 	public int count() {
 		return n;
 	}
@@ -55,14 +106,54 @@ public class Statistics {
 
 	public double avg() {
 		checkState();
-		return sumx/n;
+		return mean;
 	}
 
+	/**
+	 * @return the (population) standard deviation
+	 */
 	public double var() {
 		checkState();
-		return Math.sqrt(sumxx - sumx*sumx);
+		return Math.sqrt(m2 / n);
 	}
-	
+
+	/**
+	 * @param percentile between 0 and 100
+	 * @return the middle of the bucket containing the percentile, clamped to [min, max]
+	 */
+	public double percentile(double percentile) {
+		checkState();
+		if (percentile < 0 || percentile > 100) throw new IllegalArgumentException("percentile must be between 0 and 100: " + percentile);
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * n));
+		long seen = 0;
+		int bucket = 0;
+		for (; bucket < BUCKET_COUNT - 1; bucket++) {
+			seen += buckets[bucket];
+			if (seen >= rank) break;
+		}
+		double value;
+		if (bucket == 0) {
+			value = minx;
+		} else if (bucket == BUCKET_COUNT - 1) {
+			value = maxx;
+		} else {
+			value = (bucketLowerBound(bucket) + bucketLowerBound(bucket + 1)) / 2;
+		}
+		return Math.min(maxx, Math.max(minx, value));
+	}
+
+	public double p50() {
+		return percentile(50);
+	}
+
+	public double p99() {
+		return percentile(99);
+	}
+
+	public double p999() {
+		return percentile(99.9);
+	}
+
 	@Override
 	public String toString() {
 		return String.format("%d\t%.4f\t%.4f\t%.4f\t%.4f", count(), avg(), var(), min(), max());
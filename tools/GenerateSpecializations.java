@@ -0,0 +1,49 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Generates the primitive specializations of the bounded priority queue selector from
+ * PrimitivePQ.template. Every (index, score) type pair gets its own class, so the hot loops
+ * stay monomorphic and there is no widening or boxing.
+ * It is not part of the product, run it after changing the template with mvn -Pgenerate generate-sources
+ * (or java tools/GenerateSpecializations.java [template] [source root] from the project root).
+ * The int/double pair is TopNSelect_PQNat, it is not generated.
+ */
+public class GenerateSpecializations {
+
+	private static final String[][] SPECIALIZATIONS = {
+		{ "long", "float" },
+		{ "int", "float" },
+		{ "long", "double" },
+		{ "long", "long" },
+	};
+
+	private static final String PACKAGE_DIR = "org/axt/perftest/topnselect/alg";
+
+	public static void main(String[] args) throws IOException {
+		Path template = Paths.get(args.length > 0 ? args[0] : "tools/PrimitivePQ.template");
+		Path srcRoot = Paths.get(args.length > 1 ? args[1] : "src");
+		String content = new String(Files.readAllBytes(template), StandardCharsets.UTF_8);
+
+		for (String[] spec : SPECIALIZATIONS) {
+			String key = spec[0];
+			String score = spec[1];
+			String source = content
+					.replace("${key}", key)
+					.replace("${score}", score)
+					.replace("${Key}", capitalize(key))
+					.replace("${Score}", capitalize(score));
+
+			Path target = srcRoot.resolve(PACKAGE_DIR + "/TopNSelect_PQ" + capitalize(key) + capitalize(score) + ".java");
+			Files.write(target, source.getBytes(StandardCharsets.UTF_8));
+			System.out.println("generated " + target);
+		}
+	}
+
+	private static String capitalize(String s) {
+		return Character.toUpperCase(s.charAt(0)) + s.substring(1);
+	}
+}